@@ -0,0 +1,109 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.http.Context;
+import io.javalin.validation.Validator;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * A bare-bones `Context` for the benchmarks: it answers the query
+ * parameter and header questions the controllers ask, and its output
+ * stream throws away everything written to it. Mockito would be simpler
+ * to set up, but its bookkeeping on every call would swamp the code being
+ * measured.
+ */
+public final class ContextStub {
+
+  private ContextStub() {
+  }
+
+  /**
+   * Make a context for a request with the given query parameters.
+   *
+   * @param queryParams the (single-valued) query parameters
+   * @return the context; calling anything it doesn't support throws an
+   *   `UnsupportedOperationException`
+   */
+  public static Context of(Map<String, String> queryParams) {
+    return of(queryParams, Map.of());
+  }
+
+  /**
+   * Make a context for a request with the given query parameters and
+   * request headers.
+   *
+   * @param queryParams the (single-valued) query parameters
+   * @param headers the request headers, e.g., `Accept`
+   * @return the context; calling anything it doesn't support throws an
+   *   `UnsupportedOperationException`
+   */
+  public static Context of(Map<String, String> queryParams, Map<String, String> headers) {
+    Map<String, List<String>> queryParamMap = new LinkedHashMap<>();
+    queryParams.forEach((key, value) -> queryParamMap.put(key, List.of(value)));
+    ServletOutputStream outputStream = new DiscardingOutputStream();
+
+    return (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] {Context.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "queryParamMap":
+            return queryParamMap;
+          case "queryParam":
+            return queryParams.get((String) args[0]);
+          case "queryParamAsClass":
+            return validator((String) args[0], queryParams.get((String) args[0]), (Class<?>) args[1]);
+          case "outputStream":
+            return outputStream;
+          case "contentType":
+            return proxy;
+          case "header":
+            // Reading a request header, or setting a response header
+            return args.length == 1 ? headers.get((String) args[0]) : proxy;
+          case "toString":
+            return "ContextStub" + queryParams;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+  }
+
+  private static <T> Validator<T> validator(String key, String value, Class<T> type) {
+    Object typed = type == Integer.class ? Integer.valueOf(value) : value;
+    return new Validator<>(key, type.cast(typed), null);
+  }
+
+  /**
+   * A servlet output stream that throws away everything written to it,
+   * so that writing a response costs only the serialization.
+   */
+  public static final class DiscardingOutputStream extends ServletOutputStream {
+
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      // Writes never block, so there's nothing to notify.
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      sink.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      sink.write(b, off, len);
+    }
+  }
+}
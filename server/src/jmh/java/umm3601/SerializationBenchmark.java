@@ -0,0 +1,81 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * Measures writing lists of todos and users, the way the list endpoints
+ * do (through `StreamingResponse`), for a range of list sizes and in each
+ * of the `WireFormat`s. The output is thrown away, so this is just the
+ * cost of serializing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({"VisibilityModifier", "MagicNumber"})
+public class SerializationBenchmark {
+
+  // JMH sets these (once for each combination) before calling `setup`.
+  @Param({"10", "1000", "10000"})
+  public int size;
+
+  @Param({"JSON", "SMILE", "CBOR", "MESSAGE_PACK"})
+  public WireFormat format;
+
+  private Context ctx;
+  private List<Todo> todos;
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    ctx = ContextStub.of(Map.of(), Map.of(Header.ACCEPT, format.mediaType()));
+    todos = new ArrayList<>(size);
+    users = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Todo todo = new Todo();
+      todo._id = new ObjectId().toHexString();
+      todo.owner = "Blanche";
+      todo.status = i % 2 == 0 ? "complete" : "incomplete";
+      todo.body = "In sunt ex non tempor cillum commodo amet incididunt anim qui commodo quis. Cillum non labore ex.";
+      todo.category = "software design";
+      todos.add(todo);
+
+      User user = new User();
+      user._id = new ObjectId().toHexString();
+      user.name = "Connie Stewart";
+      user.age = 25 + i % 40;
+      user.company = "OHMNET";
+      user.email = "conniestewart@ohmnet.com";
+      user.avatar = "https://gravatar.com/avatar/b8a0f4a28d0b4f8e8c7d5e9f2c1a3b4d?d=identicon";
+      user.role = "editor";
+      users.add(user);
+    }
+  }
+
+  @Benchmark
+  public void writeTodos() {
+    StreamingResponse.writeArray(ctx, todos);
+  }
+
+  @Benchmark
+  public void writeUsers() {
+    StreamingResponse.writeArray(ctx, users);
+  }
+}
@@ -0,0 +1,60 @@
+package umm3601.todo;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.http.Context;
+import umm3601.ContextStub;
+import umm3601.KeysetCursor;
+
+/**
+ * Measures building the filter and sort for a `getTodos` request. The
+ * filters are rendered to BSON, as the driver would when sending the
+ * query, since building a `Bson` on its own does very little.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoControllerBenchmark {
+
+  private final Context noParams = ContextStub.of(Map.of());
+
+  private final Context everyParam = ContextStub.of(Map.of(
+      TodoController.OWNER_PREFIX_PARAMETER, "bla",
+      TodoController.CATEGORY_KEY, "homework",
+      TodoController.STATUS_KEY, "complete",
+      TodoController.CONTAINS_PARAMETER, "ipsum",
+      "sortby", "category",
+      "sortorder", "desc"));
+
+  private static BsonDocument render(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+  }
+
+  @Benchmark
+  public BsonDocument filterWithoutParams() {
+    return render(TodoController.constructFilter(noParams));
+  }
+
+  @Benchmark
+  public BsonDocument filterWithEveryParam() {
+    return render(TodoController.constructFilter(everyParam));
+  }
+
+  @Benchmark
+  public BsonDocument sort() {
+    return render(KeysetCursor.sort(
+      TodoController.constructSortField(everyParam), TodoController.constructSortDescending(everyParam)));
+  }
+}
@@ -0,0 +1,148 @@
+package umm3601.user;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.javalin.http.Context;
+import umm3601.ContextStub;
+import umm3601.KeysetCursor;
+import umm3601.ValidationRule;
+
+/**
+ * Measures the per-request work in `UserController` that doesn't touch
+ * the database: building the filter and sort for `getUsers`, hashing an
+ * email for its avatar, and checking a new user against the validation
+ * rules (including the email and role regexes).
+ * <p>
+ * The `...Baseline` benchmarks do the same work the way the controller
+ * used to (compiling the regexes on every call, getting a new digest for
+ * every hash, and formatting each byte as hex), so running with the GC
+ * profiler shows what the current versions save in time and allocation:
+ * <pre>
+ *   ./gradlew jmh -PjmhIncludes=UserControllerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserControllerBenchmark {
+
+  private static final int AGE = 37;
+
+  // Nothing here uses the database, but the controller needs one to be
+  // built; the client doesn't connect until it's asked to do something.
+  private MongoClient mongoClient;
+  private UserController userController;
+
+  private final Context everyParam = ContextStub.of(Map.of(
+      UserController.AGE_KEY, String.valueOf(AGE),
+      UserController.COMPANY_PREFIX_PARAMETER, "ohm",
+      UserController.ROLE_KEY, "editor",
+      "sortby", "company",
+      "sortorder", "desc"));
+
+  private final User newUser = new User();
+
+  // More distinct emails than the avatar cache holds, so cycling through
+  // them always misses
+  private final String[] manyEmails = new String[2 * UserController.AVATAR_CACHE_SIZE];
+  private int nextEmail;
+
+  /**
+   * Fill in a legal new user.
+   */
+  public UserControllerBenchmark() {
+    newUser.name = "Kristin Moss";
+    newUser.age = AGE;
+    newUser.company = "OHMNET";
+    newUser.email = "kristin.moss@ohmnet.com";
+    newUser.role = "editor";
+    for (int i = 0; i < manyEmails.length; i++) {
+      manyEmails[i] = "user" + i + "@ohmnet.com";
+    }
+  }
+
+  @Setup
+  public void setup() {
+    mongoClient = MongoClients.create();
+    userController = new UserController(mongoClient.getDatabase("benchmark"));
+  }
+
+  @TearDown
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  private static BsonDocument render(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+  }
+
+  @Benchmark
+  public BsonDocument filterWithEveryParam() {
+    return render(UserController.constructFilter(everyParam));
+  }
+
+  @Benchmark
+  public BsonDocument sort() {
+    return render(KeysetCursor.sort(
+      UserController.constructSortField(everyParam), UserController.constructSortDescending(everyParam)));
+  }
+
+  @Benchmark
+  public String md5() throws NoSuchAlgorithmException {
+    return userController.md5(newUser.email);
+  }
+
+  @Benchmark
+  public String md5Baseline() throws NoSuchAlgorithmException {
+    MessageDigest md = MessageDigest.getInstance("MD5");
+    byte[] hashInBytes = md.digest(newUser.email.toLowerCase().getBytes(StandardCharsets.UTF_8));
+    StringBuilder result = new StringBuilder();
+    for (byte b : hashInBytes) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+
+  // The same email every time, as when a client retries, so after the
+  // first call this is a cache hit
+  @Benchmark
+  public String generateAvatar() {
+    return userController.generateAvatar(newUser.email);
+  }
+
+  @Benchmark
+  public String generateAvatarNewEmail() {
+    nextEmail = (nextEmail + 1) % manyEmails.length;
+    return userController.generateAvatar(manyEmails[nextEmail]);
+  }
+
+  @Benchmark
+  public String validateNewUser() {
+    return ValidationRule.firstFailure(UserController.VALIDATION_RULES, newUser);
+  }
+
+  @Benchmark
+  public boolean validateEmailAndRoleBaseline() {
+    return newUser.email.matches(UserController.EMAIL_REGEX)
+      && newUser.role.matches("^(admin|editor|viewer)$");
+  }
+}
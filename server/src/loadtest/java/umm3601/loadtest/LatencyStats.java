@@ -0,0 +1,79 @@
+package umm3601.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A summary of the response times recorded for one route (or for all of
+ * them) over a load test run.
+ */
+public final class LatencyStats {
+
+  private static final double P50 = 0.50;
+  private static final double P95 = 0.95;
+  private static final double P99 = 0.99;
+
+  private final long count;
+  private final long errors;
+  private final double throughput;
+  private final long[] sortedNanos;
+
+  /**
+   * Summarize a run.
+   *
+   * @param latencyNanos the response time of every successful request
+   * @param errors the number of requests that failed
+   * @param elapsedNanos how long the run took
+   */
+  public LatencyStats(long[] latencyNanos, long errors, long elapsedNanos) {
+    this.sortedNanos = latencyNanos.clone();
+    Arrays.sort(this.sortedNanos);
+    this.count = latencyNanos.length;
+    this.errors = errors;
+    this.throughput = count / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * @return successful requests per second
+   */
+  public double throughput() {
+    return throughput;
+  }
+
+  /**
+   * @param quantile a fraction between 0 and 1, e.g., 0.99
+   * @return the response time (in milliseconds) that that fraction of
+   *   requests were at least as fast as
+   */
+  public double percentileMillis(double quantile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * @return the number of requests that failed
+   */
+  public long errors() {
+    return errors;
+  }
+
+  /**
+   * @return the summary as a map, ready to be written out as JSON
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("requests", count);
+    map.put("errors", errors);
+    map.put("throughputPerSecond", throughput);
+    map.put("p50Millis", percentileMillis(P50));
+    map.put("p95Millis", percentileMillis(P95));
+    map.put("p99Millis", percentileMillis(P99));
+    map.put("maxMillis", percentileMillis(1));
+    return map;
+  }
+}
@@ -0,0 +1,191 @@
+package umm3601.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Sends a mix of requests to a server at a fixed rate, and records how
+ * long every response took.
+ * <p>
+ * The load is open-loop: requests go out on a fixed schedule, whether or
+ * not earlier ones have been answered, and each response time is measured
+ * from when its request was <em>supposed</em> to go out. So if the server
+ * stalls, the requests that should have been sent during the stall are
+ * charged for the wait, as real users' would be, instead of quietly not
+ * being sent (the "coordinated omission" a closed loop of clients, each
+ * waiting for its last response, suffers from).
+ * <p>
+ * Requests scheduled during the warmup aren't counted, so the JIT and the
+ * server's (and MongoDB's) caches have had a chance to settle first.
+ * Requests scheduled during the measured period are counted even if
+ * they're answered after it ends.
+ */
+public final class LoadGenerator {
+
+  /** The name results for all routes together are reported under. */
+  public static final String ALL_ROUTES = "all";
+
+  private static final int FIRST_ERROR_STATUS = 400;
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(30);
+
+  private final HttpClient client;
+
+  /**
+   * @param client the client to send the requests with
+   */
+  public LoadGenerator(HttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * One kind of request in the mix.
+   */
+  public static final class Route {
+    private final String name;
+    private final int weight;
+    private final Supplier<HttpRequest> requests;
+
+    /**
+     * @param name the name to report the route's results under
+     * @param weight how often to send it, relative to the other routes
+     * @param requests makes the next request to send (so, e.g., the query
+     *   can vary from one to the next), or gives `null` once the route has
+     *   nothing left to send (e.g., no more documents to delete); its turns
+     *   are then skipped rather than counted
+     */
+    public Route(String name, int weight, Supplier<HttpRequest> requests) {
+      this.name = name;
+      this.weight = weight;
+      this.requests = requests;
+    }
+
+    /**
+     * @return how often to send it, relative to the other routes
+     */
+    public int weight() {
+      return weight;
+    }
+  }
+
+  /**
+   * Run the load and summarize the response times for each route.
+   *
+   * @param routes the mix of requests to send
+   * @param ratePerSecond how many requests to send each second
+   * @param warmup how long to run before starting to count
+   * @param duration how long to count for
+   * @return the results for each route, and for all of them together
+   *   (under `ALL_ROUTES`)
+   * @throws InterruptedException if we're interrupted while waiting
+   */
+  public Map<String, LatencyStats> run(List<Route> routes, int ratePerSecond, Duration warmup, Duration duration)
+      throws InterruptedException {
+    int totalWeight = routes.stream().mapToInt(route -> route.weight).sum();
+    long interval = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+    long start = System.nanoTime();
+    long measureFrom = start + warmup.toNanos();
+    long end = measureFrom + duration.toNanos();
+
+    LongBuffer[] latencies = new LongBuffer[routes.size()];
+    for (int r = 0; r < routes.size(); r++) {
+      latencies[r] = new LongBuffer();
+    }
+    AtomicLongArray errors = new AtomicLongArray(routes.size());
+    Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    for (long intended = start; intended < end; intended += interval) {
+      long wait = intended - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      int r = pickRoute(routes, totalWeight);
+      HttpRequest request = routes.get(r).requests.get();
+      if (request == null) {
+        continue;
+      }
+      boolean counted = intended >= measureFrom;
+      long scheduled = intended;
+      CompletableFuture<?> response = client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .orTimeout(RESPONSE_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS)
+        .handle((answer, failure) -> {
+          long latency = System.nanoTime() - scheduled;
+          if (counted) {
+            if (failure == null && answer.statusCode() < FIRST_ERROR_STATUS) {
+              latencies[r].add(latency);
+            } else {
+              errors.incrementAndGet(r);
+            }
+          }
+          return null;
+        });
+      inFlight.add(response);
+      response.whenComplete((ignored, failure) -> inFlight.remove(response));
+    }
+    CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+    long elapsed = duration.toNanos();
+
+    Map<String, LatencyStats> results = new LinkedHashMap<>();
+    LongBuffer allLatencies = new LongBuffer();
+    long allErrors = 0;
+    for (int r = 0; r < routes.size(); r++) {
+      results.put(routes.get(r).name, new LatencyStats(latencies[r].toArray(), errors.get(r), elapsed));
+      allLatencies.addAll(latencies[r]);
+      allErrors += errors.get(r);
+    }
+    results.put(ALL_ROUTES, new LatencyStats(allLatencies.toArray(), allErrors, elapsed));
+    return results;
+  }
+
+  private static int pickRoute(List<Route> routes, int totalWeight) {
+    int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (int r = 0; r < routes.size(); r++) {
+      ticket -= routes.get(r).weight;
+      if (ticket < 0) {
+        return r;
+      }
+    }
+    return routes.size() - 1;
+  }
+
+  // A growable array of longs, so recording a latency doesn't box it.
+  // Responses are recorded from the client's threads, hence the locking.
+  private static final class LongBuffer {
+    private long[] values = new long[INITIAL_BUFFER_SIZE];
+    private int size;
+
+    synchronized void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    synchronized void addAll(LongBuffer other) {
+      for (long value : other.toArray()) {
+        add(value);
+      }
+    }
+
+    synchronized long[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package umm3601.loadtest;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import umm3601.seed.SyntheticData;
+
+/**
+ * An end-to-end load test: seed a database, start the server against
+ * it, send it a realistic mix of requests, and write a report.
+ * <p>
+ * The mix covers the `/api/todos` and `/api/users` routes: paged lists,
+ * lookups by ID, filtered lists (using values that are in the seeded
+ * data), substring searches, inserts, and deletes. Deletes use seeded
+ * documents that nothing else asks for, so lookups aren't turned into
+ * 404s. Enough of them are set aside for the rate and length of the run
+ * (up to half the seeded documents); if they run out anyway, no more
+ * deletes are sent, and the report says how many were left.
+ * <p>
+ * Run it with
+ * <pre>
+ *   ./gradlew loadTest -Ptodos=1000000 -Pusers=100000 -Prate=500
+ * </pre>
+ * The other knobs are `warmupSeconds`, `durationSeconds`, `port`, and
+ * `report` (where the JSON report goes). The database is `MONGO_DB`
+ * (default `loadtest`, which is dropped and refilled) on `MONGO_ADDR`.
+ * The report has the settings and, for each route and for all of them
+ * together, the request and error counts, throughput, and p50/p95/p99
+ * and max latencies, so the reports from two builds can be diffed.
+ */
+public final class LoadTest {
+
+  private static final int DEFAULT_TODOS = 100_000;
+  private static final int DEFAULT_USERS = 10_000;
+  private static final int DEFAULT_RATE = 500;
+  private static final int DEFAULT_WARMUP_SECONDS = 10;
+  private static final int DEFAULT_DURATION_SECONDS = 60;
+  private static final int DEFAULT_PORT = 4569;
+  private static final int DELETE_WEIGHT = 1;
+  // Set aside this much more than the expected number of deletes, since
+  // the routes are picked at random
+  private static final double DELETE_HEADROOM = 1.2;
+  private static final int PAGE_SIZE = 50;
+  private static final int SEARCH_PAGE_SIZE = 20;
+  private static final double MEDIAN = 0.50;
+  private static final double P95 = 0.95;
+  private static final double P99 = 0.99;
+
+  private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int todoCount = Integer.getInteger("todos", DEFAULT_TODOS);
+    int userCount = Integer.getInteger("users", DEFAULT_USERS);
+    int rate = Integer.getInteger("rate", DEFAULT_RATE);
+    Duration warmup = Duration.ofSeconds(Integer.getInteger("warmupSeconds", DEFAULT_WARMUP_SECONDS));
+    Duration duration = Duration.ofSeconds(Integer.getInteger("durationSeconds", DEFAULT_DURATION_SECONDS));
+    int port = Integer.getInteger("port", DEFAULT_PORT);
+    File logDir = new File(System.getProperty("loadtest.logDir", "build/loadtest"));
+    File report = new File(System.getProperty("report", new File(logDir, "report.json").getPath()));
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    String databaseName = System.getenv().getOrDefault("MONGO_DB", "loadtest");
+    logDir.mkdirs();
+
+    System.out.printf("Seeding %d todos and %d users into %s%n", todoCount, userCount, databaseName);
+    SeedData data;
+    try (MongoClient mongoClient = MongoClients.create("mongodb://" + mongoAddr)) {
+      data = SeedData.seed(mongoClient.getDatabase(databaseName), todoCount, userCount);
+    }
+
+    Map<String, LatencyStats> results;
+    Queue<String> deletableTodos = new ConcurrentLinkedQueue<>();
+    Queue<String> deletableUsers = new ConcurrentLinkedQueue<>();
+    long requests = (long) rate * warmup.plus(duration).getSeconds();
+    File log = new File(logDir, "server-loadtest.log");
+    try (ServerProcess server = ServerProcess.start(port, Map.of("MONGO_DB", databaseName), log)) {
+      System.out.printf("Sending %d requests/s for %ds (after %ds of warmup)%n",
+        rate, duration.getSeconds(), warmup.getSeconds());
+      results = new LoadGenerator(HttpClient.newHttpClient())
+        .run(routes(server.baseUri(), data, requests, deletableTodos, deletableUsers), rate, warmup, duration);
+    }
+    if (deletableTodos.isEmpty() || deletableUsers.isEmpty()) {
+      System.out.println("Ran out of documents to delete; the deletes stopped early");
+    }
+
+    System.out.printf("%-28s %10s %9s %9s %9s %8s%n", "route", "req/s", "p50 ms", "p95 ms", "p99 ms", "errors");
+    results.forEach((route, stats) -> System.out.printf("%-28s %10.1f %9.2f %9.2f %9.2f %8d%n",
+      route, stats.throughput(), stats.percentileMillis(MEDIAN), stats.percentileMillis(P95),
+      stats.percentileMillis(P99), stats.errors()));
+
+    Map<String, Object> settings = new LinkedHashMap<>();
+    settings.put("todos", todoCount);
+    settings.put("users", userCount);
+    settings.put("ratePerSecond", rate);
+    settings.put("warmupSeconds", warmup.getSeconds());
+    settings.put("durationSeconds", duration.getSeconds());
+    settings.put("deletableTodosLeft", deletableTodos.size());
+    settings.put("deletableUsersLeft", deletableUsers.size());
+    Map<String, Object> routes = new LinkedHashMap<>();
+    results.forEach((route, stats) -> routes.put(route, stats.toMap()));
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("finishedAt", Instant.now().toString());
+    body.put("settings", settings);
+    body.put("routes", routes);
+    JSON.writeValue(report, body);
+    System.out.println("Wrote " + report);
+  }
+
+  // The relative weights are a guess at a read-heavy app: mostly lists
+  // and lookups, some writes. Enough documents for each delete route's
+  // share of the `requests` are set aside in the deletable queues, and
+  // lookups only ask for the rest.
+  @SuppressWarnings({"MagicNumber"})
+  private static List<LoadGenerator.Route> routes(URI baseUri, SeedData data, long requests,
+      Queue<String> deletableTodos, Queue<String> deletableUsers) {
+    List<String> todoIds = new ArrayList<>();
+    List<String> userIds = new ArrayList<>();
+
+    List<LoadGenerator.Route> routes = List.of(
+      route("GET /api/todos", 4, () -> get(baseUri, "/api/todos?limit=" + PAGE_SIZE)),
+      route("GET /api/todos/{id}", 4, () -> get(baseUri, "/api/todos/" + any(todoIds))),
+      route("GET /api/todos?filtered", 3, () -> get(baseUri, "/api/todos?owner=" + any(SyntheticData.OWNERS)
+        + "&status=complete&sortby=category&limit=" + PAGE_SIZE)),
+      route("GET /api/todos?contains", 1, () -> get(baseUri, "/api/todos?contains=" + any(SyntheticData.WORDS)
+        + "&limit=" + SEARCH_PAGE_SIZE)),
+      route("POST /api/todos", 2, () -> post(baseUri, "/api/todos", SyntheticData.todo(random()))),
+      route("DELETE /api/todos/{id}", DELETE_WEIGHT, () -> delete(baseUri, "/api/todos/", deletableTodos)),
+      route("GET /api/users", 2, () -> get(baseUri, "/api/users?limit=" + PAGE_SIZE)),
+      route("GET /api/users/{id}", 3, () -> get(baseUri, "/api/users/" + any(userIds))),
+      route("GET /api/users?filtered", 3, () -> get(baseUri, "/api/users?company=" + any(SyntheticData.COMPANIES)
+        + "&role=" + any(SyntheticData.ROLES) + "&sortby=age")),
+      route("POST /api/users", 1, () -> post(baseUri, "/api/users", SyntheticData.user(random()))),
+      route("DELETE /api/users/{id}", DELETE_WEIGHT, () -> delete(baseUri, "/api/users/", deletableUsers))
+    );
+
+    int totalWeight = routes.stream().mapToInt(LoadGenerator.Route::weight).sum();
+    long deletes = (long) Math.ceil(DELETE_HEADROOM * requests * DELETE_WEIGHT / totalWeight);
+    setAside(data.todoIds(), deletes, todoIds, deletableTodos);
+    setAside(data.userIds(), deletes, userIds, deletableUsers);
+    return routes;
+  }
+
+  private static LoadGenerator.Route route(String name, int weight, Supplier<HttpRequest> requests) {
+    return new LoadGenerator.Route(name, weight, requests);
+  }
+
+  // Split the seeded IDs between the ones to look up and (up to half of
+  // them) the ones to delete
+  private static void setAside(List<ObjectId> ids, long deletes, List<String> readable, Queue<String> deletable) {
+    int split = ids.size() - (int) Math.min(deletes, ids.size() / 2);
+    for (ObjectId id : ids.subList(0, split)) {
+      readable.add(id.toHexString());
+    }
+    for (ObjectId id : ids.subList(split, ids.size())) {
+      deletable.add(id.toHexString());
+    }
+  }
+
+  private static Random random() {
+    return ThreadLocalRandom.current();
+  }
+
+  private static String any(List<String> values) {
+    return values.get(random().nextInt(values.size()));
+  }
+
+  private static HttpRequest get(URI baseUri, String path) {
+    return HttpRequest.newBuilder(baseUri.resolve(path.replace(" ", "%20"))).build();
+  }
+
+  private static HttpRequest post(URI baseUri, String path, Document body) {
+    return HttpRequest.newBuilder(baseUri.resolve(path))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(body.toJson(), StandardCharsets.UTF_8))
+      .build();
+  }
+
+  // Once the deletable documents run out, there's nothing to send (rather
+  // than a delete of one that was never there, which would be a 404).
+  private static HttpRequest delete(URI baseUri, String path, Queue<String> deletable) {
+    String id = deletable.poll();
+    if (id == null) {
+      return null;
+    }
+    return HttpRequest.newBuilder(baseUri.resolve(path + id)).DELETE().build();
+  }
+}
@@ -0,0 +1,110 @@
+package umm3601.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares HTTP/1.1 against HTTP/2 (`HTTP2=h2c`) for the kind of load our
+ * client puts on the server: lots of small, concurrent requests for
+ * single todos and users.
+ * <p>
+ * One server process, with the h2c connector turned on, is measured
+ * twice: once by a client that only speaks HTTP/1.1 (and so needs a
+ * connection per request in flight) and once by a client that speaks
+ * HTTP/2 (and so multiplexes them all over one connection). The database
+ * is whatever `MONGO_ADDR`/`MONGO_DB` point at, so seed it first (e.g.,
+ * with `./gradlew seed`). Run it with
+ * <pre>
+ *   ./gradlew benchmarkProtocols
+ * </pre>
+ * The load can be tuned with the `rate` (requests per second),
+ * `warmupSeconds`, `durationSeconds`, and `port` system properties (which
+ * the Gradle task passes along from project properties).
+ */
+public final class ProtocolBenchmark {
+
+  private static final int DEFAULT_RATE = 2000;
+  private static final int DEFAULT_WARMUP_SECONDS = 10;
+  private static final int DEFAULT_DURATION_SECONDS = 30;
+  private static final int DEFAULT_PORT = 4568;
+  private static final int IDS_TO_FETCH = 1000;
+  private static final double MEDIAN = 0.50;
+  private static final double P99 = 0.99;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private ProtocolBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rate = Integer.getInteger("rate", DEFAULT_RATE);
+    Duration warmup = Duration.ofSeconds(Integer.getInteger("warmupSeconds", DEFAULT_WARMUP_SECONDS));
+    Duration duration = Duration.ofSeconds(Integer.getInteger("durationSeconds", DEFAULT_DURATION_SECONDS));
+    int port = Integer.getInteger("port", DEFAULT_PORT);
+    File logDir = new File(System.getProperty("loadtest.logDir", "build/loadtest"));
+    logDir.mkdirs();
+
+    File log = new File(logDir, "server-h2c.log");
+    try (ServerProcess server = ServerProcess.start(port, Map.of("HTTP2", "h2c"), log)) {
+      List<LoadGenerator.Route> routes = routes(server.baseUri());
+
+      System.out.printf("%-10s %12s %10s %10s %10s %8s%n",
+        "protocol", "requests/s", "p50 ms", "p99 ms", "max ms", "errors");
+      for (HttpClient.Version version : List.of(HttpClient.Version.HTTP_1_1, HttpClient.Version.HTTP_2)) {
+        LatencyStats all = new LoadGenerator(HttpClient.newBuilder().version(version).build())
+          .run(routes, rate, warmup, duration)
+          .get(LoadGenerator.ALL_ROUTES);
+        System.out.printf("%-10s %12.1f %10.2f %10.2f %10.2f %8d%n",
+          version,
+          all.throughput(),
+          all.percentileMillis(MEDIAN),
+          all.percentileMillis(P99),
+          all.percentileMillis(1),
+          all.errors());
+      }
+    }
+  }
+
+  // Single todos and users, picked at random from the first ones the
+  // list endpoints return.
+  private static List<LoadGenerator.Route> routes(URI baseUri) throws IOException, InterruptedException {
+    List<String> todoIds = ids(baseUri, "/api/todos");
+    List<String> userIds = ids(baseUri, "/api/users");
+    return List.of(
+      new LoadGenerator.Route("GET /api/todos/{id}", 1,
+        () -> HttpRequest.newBuilder(baseUri.resolve("/api/todos/" + any(todoIds))).build()),
+      new LoadGenerator.Route("GET /api/users/{id}", 1,
+        () -> HttpRequest.newBuilder(baseUri.resolve("/api/users/" + any(userIds))).build())
+    );
+  }
+
+  private static List<String> ids(URI baseUri, String path) throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(
+      baseUri.resolve(path + "?fields=_id&limit=" + IDS_TO_FETCH)).build();
+    String body = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+    List<String> ids = new ArrayList<>();
+    for (JsonNode item : MAPPER.readTree(body)) {
+      ids.add(item.get("_id").asText());
+    }
+    if (ids.isEmpty()) {
+      throw new IllegalStateException("There are no items at " + path + "; seed the database first");
+    }
+    return ids;
+  }
+
+  private static String any(List<String> ids) {
+    return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+  }
+}
@@ -0,0 +1,90 @@
+package umm3601.loadtest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import umm3601.seed.BulkLoader;
+import umm3601.seed.SyntheticData;
+
+/**
+ * Fills a database with made-up todos and users for a load test, and
+ * remembers their IDs so the test can ask for (and delete) them.
+ * <p>
+ * The data comes from `SyntheticData` with a fixed random seed, so the
+ * same counts give the same data every time and runs of different builds
+ * can be compared fairly.
+ */
+public final class SeedData {
+
+  private static final long RANDOM_SEED = 3601;
+  private static final int BATCH_SIZE = 1000;
+
+  private final List<ObjectId> todoIds;
+  private final List<ObjectId> userIds;
+
+  private SeedData(List<ObjectId> todoIds, List<ObjectId> userIds) {
+    this.todoIds = todoIds;
+    this.userIds = userIds;
+  }
+
+  /**
+   * Replace the todos and users in the database with made-up ones.
+   *
+   * @param database the database to fill
+   * @param todoCount how many todos to add
+   * @param userCount how many users to add
+   * @return the IDs of what was added
+   * @throws InterruptedException if we're interrupted while inserting
+   */
+  public static SeedData seed(MongoDatabase database, int todoCount, int userCount) throws InterruptedException {
+    Random random = new Random(RANDOM_SEED);
+    BulkLoader loader = new BulkLoader(Runtime.getRuntime().availableProcessors(), BATCH_SIZE);
+    List<ObjectId> todoIds = new ArrayList<>(todoCount);
+    List<ObjectId> userIds = new ArrayList<>(userCount);
+    load(loader, database.getCollection("todos"), SyntheticData.todos(todoCount, random), todoIds);
+    load(loader, database.getCollection("users"), SyntheticData.users(userCount, random), userIds);
+    return new SeedData(todoIds, userIds);
+  }
+
+  private static void load(BulkLoader loader, MongoCollection<Document> collection,
+      Iterator<Document> documents, List<ObjectId> ids) throws InterruptedException {
+    collection.drop();
+    loader.load(collection, new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return documents.hasNext();
+      }
+
+      @Override
+      public Document next() {
+        Document document = documents.next();
+        ids.add(document.getObjectId("_id"));
+        return document;
+      }
+    });
+  }
+
+  /**
+   * @return the IDs of the todos that were added, in the order they were
+   *   added
+   */
+  public List<ObjectId> todoIds() {
+    return todoIds;
+  }
+
+  /**
+   * @return the IDs of the users that were added, in the order they were
+   *   added
+   */
+  public List<ObjectId> userIds() {
+    return userIds;
+  }
+}
@@ -0,0 +1,101 @@
+package umm3601.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs our `Server` in a child JVM, so a benchmark can measure it from
+ * the outside (over real HTTP) and try it out with different settings.
+ * <p>
+ * The server's classpath comes from the `server.classpath` system
+ * property, which the Gradle tasks set. The child uses the same `java`
+ * as this process, so it runs on whatever toolchain the task picked.
+ */
+public final class ServerProcess implements AutoCloseable {
+
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+  private static final long STARTUP_POLL_MILLIS = 250;
+  private static final int HTTP_OK = 200;
+
+  private final Process process;
+  private final URI baseUri;
+
+  private ServerProcess(Process process, URI baseUri) {
+    this.process = process;
+    this.baseUri = baseUri;
+  }
+
+  /**
+   * Start a server and wait until it answers requests.
+   *
+   * @param port the port for it to listen on
+   * @param environment extra environment variables for it (e.g.,
+   *   `JETTY_THREADS`); `MONGO_ADDR` and `MONGO_DB` are passed through
+   *   from this process unless they're given here
+   * @param log where to write its output
+   * @return the running server
+   * @throws IOException if it can't be started
+   * @throws InterruptedException if we're interrupted while waiting
+   */
+  public static ServerProcess start(int port, Map<String, String> environment, File log)
+      throws IOException, InterruptedException {
+    String java = ProcessHandle.current().info().command().orElse("java");
+    ProcessBuilder builder = new ProcessBuilder(
+        List.of(java, "-cp", System.getProperty("server.classpath"), "umm3601.Server"))
+      .redirectErrorStream(true)
+      .redirectOutput(log);
+    builder.environment().putAll(environment);
+    builder.environment().put("SERVER_PORT", String.valueOf(port));
+
+    ServerProcess server = new ServerProcess(builder.start(), URI.create("http://localhost:" + port));
+    server.awaitReady();
+    return server;
+  }
+
+  /**
+   * @return the server's base URI, e.g., `http://localhost:4568`
+   */
+  public URI baseUri() {
+    return baseUri;
+  }
+
+  private void awaitReady() throws InterruptedException, IOException {
+    HttpClient client = HttpClient.newHttpClient();
+    HttpRequest probe = HttpRequest.newBuilder(baseUri.resolve("/api/users?limit=1")).build();
+    long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      if (!process.isAlive()) {
+        throw new IOException("The server exited during startup with status " + process.exitValue());
+      }
+      try {
+        if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == HTTP_OK) {
+          return;
+        }
+      } catch (IOException e) {
+        // Not listening yet
+      }
+      Thread.sleep(STARTUP_POLL_MILLIS);
+    }
+    close();
+    throw new IOException("The server didn't start within " + STARTUP_TIMEOUT.getSeconds() + " seconds");
+  }
+
+  /**
+   * Stop the server and wait for it to exit.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    process.destroy();
+    if (!process.waitFor(STARTUP_TIMEOUT.getSeconds(), TimeUnit.SECONDS)) {
+      process.destroyForcibly();
+    }
+  }
+}
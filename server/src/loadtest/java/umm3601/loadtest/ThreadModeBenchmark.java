@@ -0,0 +1,84 @@
+package umm3601.loadtest;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the server running requests on Jetty's usual pool of platform
+ * threads against running each one on a virtual thread
+ * (`JETTY_THREADS=virtual`), under the same high rate of requests against
+ * the same MongoDB database. The client only speaks HTTP/1.1, so both
+ * modes see the same connections rather than whatever protocol the client
+ * and server happen to settle on.
+ * <p>
+ * Each mode gets a fresh server process; the database is whatever
+ * `MONGO_ADDR`/`MONGO_DB` point at, so seed it first (e.g., with
+ * `mongoseed.sh`). Run it with
+ * <pre>
+ *   ./gradlew benchmarkThreads -PjavaVersion=21
+ * </pre>
+ * since virtual threads need Java 21. The load can be tuned with the
+ * `rate` (requests per second), `warmupSeconds`, `durationSeconds`, and
+ * `port` system properties (which the Gradle task passes along from
+ * project properties).
+ */
+public final class ThreadModeBenchmark {
+
+  private static final int DEFAULT_RATE = 2000;
+  private static final int DEFAULT_WARMUP_SECONDS = 10;
+  private static final int DEFAULT_DURATION_SECONDS = 30;
+  private static final int DEFAULT_PORT = 4568;
+  private static final int LIST_WEIGHT = 3;
+  private static final double MEDIAN = 0.50;
+  private static final double P99 = 0.99;
+
+  private ThreadModeBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rate = Integer.getInteger("rate", DEFAULT_RATE);
+    Duration warmup = Duration.ofSeconds(Integer.getInteger("warmupSeconds", DEFAULT_WARMUP_SECONDS));
+    Duration duration = Duration.ofSeconds(Integer.getInteger("durationSeconds", DEFAULT_DURATION_SECONDS));
+    int port = Integer.getInteger("port", DEFAULT_PORT);
+    File logDir = new File(System.getProperty("loadtest.logDir", "build/loadtest"));
+    logDir.mkdirs();
+
+    System.out.printf("%-10s %12s %10s %10s %10s %8s%n",
+      "threads", "requests/s", "p50 ms", "p99 ms", "max ms", "errors");
+    for (String mode : List.of("platform", "virtual")) {
+      File log = new File(logDir, "server-" + mode + ".log");
+      try (ServerProcess server = ServerProcess.start(port, Map.of("JETTY_THREADS", mode), log)) {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        LatencyStats all = new LoadGenerator(client)
+          .run(routes(server.baseUri()), rate, warmup, duration)
+          .get(LoadGenerator.ALL_ROUTES);
+        System.out.printf("%-10s %12.1f %10.2f %10.2f %10.2f %8d%n",
+          mode,
+          all.throughput(),
+          all.percentileMillis(MEDIAN),
+          all.percentileMillis(P99),
+          all.percentileMillis(1),
+          all.errors());
+      }
+    }
+  }
+
+  // List queries, which keep a thread waiting on MongoDB the longest,
+  // plus some substring searches, which can't use an index and so are
+  // slower still.
+  private static List<LoadGenerator.Route> routes(URI baseUri) {
+    HttpRequest todos = HttpRequest.newBuilder(baseUri.resolve("/api/todos?limit=100")).build();
+    HttpRequest users = HttpRequest.newBuilder(baseUri.resolve("/api/users?sortby=age")).build();
+    HttpRequest search = HttpRequest.newBuilder(baseUri.resolve("/api/todos?contains=ipsum&limit=20")).build();
+    return List.of(
+      new LoadGenerator.Route("GET /api/todos", LIST_WEIGHT, () -> todos),
+      new LoadGenerator.Route("GET /api/users", LIST_WEIGHT, () -> users),
+      new LoadGenerator.Route("GET /api/todos?contains", 1, () -> search)
+    );
+  }
+}
@@ -0,0 +1,270 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Turns requests away, quickly, when the server can't keep up, instead of
+ * letting them queue.
+ * <p>
+ * Without this, when MongoDB slows down every request still gets a Jetty
+ * thread, and they all sit there waiting on the database until they (and
+ * the ones queued behind them) time out. Here each protected route has a
+ * limit on how many of its requests can be in progress at once; a request
+ * over the limit gets a 503 with `Retry-After` straight away, which costs
+ * next to nothing and tells the client to back off.
+ * <p>
+ * The limit adapts to how the route is doing (AIMD, as in TCP congestion
+ * control): each response that comes back within `latencyTarget`, while
+ * the limit is actually being used, raises it a little (by about one per
+ * `limit` responses); each one that's slower than that, or fails with a
+ * 5xx, cuts it by `BACKOFF`. So the limit settles near the concurrency the
+ * database can handle at the target latency, and drops quickly when it
+ * slows down.
+ * <p>
+ * Optionally, each client (by IP address) can also be held to a rate, with
+ * a token bucket that allows short bursts; requests over it get a 429.
+ * Either can be used without the other: `limitConcurrency(false)` leaves
+ * only the rate limit.
+ * <p>
+ * Limits and counts for each route are in `stats()`.
+ */
+public final class AdmissionControl {
+
+  /** The default latency target, in milliseconds. */
+  public static final long DEFAULT_LATENCY_TARGET_MILLIS = 500;
+  /** The default most requests to any one route at once. */
+  public static final int DEFAULT_MAX_LIMIT = 200;
+
+  // How much a slow or failed response cuts the limit by
+  private static final double BACKOFF = 0.9;
+
+  private static final int MIN_LIMIT = 4;
+  private static final int INITIAL_LIMIT = 20;
+  private static final String RETRY_AFTER_SECONDS = "1";
+  private static final String CHECKED_ATTRIBUTE = "admission.checked";
+  private static final String ADMITTED_ATTRIBUTE = "admission.limiter";
+  private static final String START_ATTRIBUTE = "admission.start";
+
+  // The token buckets of at most this many clients are kept, each for at
+  // most this long; a client whose bucket is dropped starts over with a
+  // full one, which only means it gets an extra burst
+  private static final int MAX_CLIENTS = 10_000;
+  private static final Duration CLIENT_TTL = Duration.ofMinutes(10);
+
+  private final long latencyTargetNanos;
+  private final int maxLimit;
+  private final int initialLimit;
+  private final LongSupplier nanoClock;
+  private final Map<String, Limiter> limiters = new LinkedHashMap<>();
+
+  private boolean limitConcurrency = true;
+
+  private double ratePerSecond;
+  private double burst;
+  private LruCache<String, TokenBucket> buckets;
+  private final AtomicLong rateLimited = new AtomicLong();
+
+  /**
+   * Construct admission control with no routes protected yet.
+   *
+   * @param latencyTarget how long a response can take before the route's
+   *   limit is cut
+   * @param maxLimit the most requests to any one route at once, however
+   *   well it's doing
+   */
+  public AdmissionControl(Duration latencyTarget, int maxLimit) {
+    this(latencyTarget, maxLimit, System::nanoTime);
+  }
+
+  AdmissionControl(Duration latencyTarget, int maxLimit, LongSupplier nanoClock) {
+    this.latencyTargetNanos = latencyTarget.toNanos();
+    this.maxLimit = Math.max(maxLimit, MIN_LIMIT);
+    this.initialLimit = Math.min(INITIAL_LIMIT, this.maxLimit);
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Also limit each client (by IP address) to a rate of requests to the
+   * protected routes.
+   *
+   * @param requestsPerSecond how many requests a client can make per
+   *   second over time
+   * @param burstSize how many it can make at once after a quiet spell
+   * @return this, for chaining
+   */
+  public AdmissionControl rateLimitClients(double requestsPerSecond, int burstSize) {
+    this.ratePerSecond = requestsPerSecond;
+    this.burst = Math.max(burstSize, 1);
+    this.buckets = new LruCache<>(MAX_CLIENTS, CLIENT_TTL, nanoClock);
+    return this;
+  }
+
+  /**
+   * Turn the adaptive concurrency limit on or off; it's on unless this
+   * turns it off (e.g., to only rate-limit clients).
+   *
+   * @param enabled whether each protected route gets a concurrency limit
+   * @return this, for chaining
+   */
+  public AdmissionControl limitConcurrency(boolean enabled) {
+    this.limitConcurrency = enabled;
+    return this;
+  }
+
+  /**
+   * Protect the given routes, each with its own limit (if the concurrency
+   * limit is on), and the client rate limit (if there is one). A request
+   * that matches more than one of them (e.g., `/api/todos/summary` also
+   * matches `/api/todos/{id}`) counts against the first that matches.
+   *
+   * @param server the server the routes are on
+   * @param paths the paths of the routes, as given to Javalin
+   */
+  public void protect(Javalin server, String... paths) {
+    for (String path : paths) {
+      Limiter limiter = limitConcurrency ? new Limiter() : null;
+      if (limiter != null) {
+        limiters.put(path, limiter);
+      }
+      server.before(path, ctx -> admit(ctx, limiter));
+    }
+    if (limitConcurrency) {
+      server.after(this::release);
+    }
+  }
+
+  private void admit(Context ctx, Limiter limiter) {
+    if (ctx.attribute(CHECKED_ATTRIBUTE) != null) {
+      return;
+    }
+    ctx.attribute(CHECKED_ATTRIBUTE, true);
+    if (buckets != null) {
+      TokenBucket bucket = buckets.get(ctx.ip(), ip -> new TokenBucket());
+      if (!bucket.tryTake()) {
+        rateLimited.incrementAndGet();
+        ctx.header(Header.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        throw new HttpResponseException(HttpStatus.TOO_MANY_REQUESTS.getCode(), "Too many requests; slow down.");
+      }
+    }
+    if (limiter == null) {
+      return;
+    }
+    if (!limiter.tryAcquire()) {
+      ctx.header(Header.RETRY_AFTER, RETRY_AFTER_SECONDS);
+      throw new ServiceUnavailableResponse("The server is busy; try again shortly.");
+    }
+    ctx.attribute(ADMITTED_ATTRIBUTE, limiter);
+    ctx.attribute(START_ATTRIBUTE, nanoClock.getAsLong());
+  }
+
+  // After-handlers run once the response is settled, even if the handler
+  // threw or returned a future, so this sees the real status and latency.
+  private void release(Context ctx) {
+    Limiter limiter = ctx.attribute(ADMITTED_ATTRIBUTE);
+    Long start = ctx.attribute(START_ATTRIBUTE);
+    if (limiter == null || start == null) {
+      return;
+    }
+    ctx.attribute(ADMITTED_ATTRIBUTE, null);
+    long latency = nanoClock.getAsLong() - start;
+    boolean failed = ctx.statusCode() >= HttpStatus.INTERNAL_SERVER_ERROR.getCode();
+    limiter.release(failed || latency > latencyTargetNanos);
+  }
+
+  /**
+   * @return the current limit, requests in progress, and counts of
+   *   admitted and rejected requests for each protected route (none if
+   *   the concurrency limit is off)
+   */
+  public Map<String, Map<String, Long>> stats() {
+    Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+    limiters.forEach((path, limiter) -> stats.put(path, limiter.stats()));
+    return stats;
+  }
+
+  /**
+   * @param path a protected route's path
+   * @return the current limit, requests in progress, and counts of
+   *   admitted and rejected requests for that route
+   */
+  public Map<String, Long> stats(String path) {
+    return limiters.get(path).stats();
+  }
+
+  /**
+   * @return how many requests were turned away by the per-client rate limit
+   */
+  public long rateLimited() {
+    return rateLimited.get();
+  }
+
+  // The adaptive concurrency limit for one route
+  private final class Limiter {
+    private double limit = initialLimit;
+    private int inFlight;
+    private long admitted;
+    private long rejected;
+
+    synchronized boolean tryAcquire() {
+      if (inFlight >= (int) limit) {
+        rejected++;
+        return false;
+      }
+      inFlight++;
+      admitted++;
+      return true;
+    }
+
+    synchronized void release(boolean overloaded) {
+      // Only grow the limit when it's being used; otherwise a quiet route
+      // would earn a limit it has never been tested at.
+      boolean busy = inFlight * 2 >= limit;
+      inFlight--;
+      if (overloaded) {
+        limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+      } else if (busy) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+    }
+
+    synchronized Map<String, Long> stats() {
+      Map<String, Long> stats = new LinkedHashMap<>();
+      stats.put("limit", (long) limit);
+      stats.put("inFlight", (long) inFlight);
+      stats.put("admitted", admitted);
+      stats.put("rejected", rejected);
+      return stats;
+    }
+  }
+
+  // Holds up to `burst` tokens and gains `ratePerSecond` a second; each
+  // request takes one.
+  private final class TokenBucket {
+    private double tokens = burst;
+    private long refilledAt = nanoClock.getAsLong();
+
+    synchronized boolean tryTake() {
+      long now = nanoClock.getAsLong();
+      double seconds = (double) (now - refilledAt) / TimeUnit.SECONDS.toNanos(1);
+      tokens = Math.min(burst, tokens + seconds * ratePerSecond);
+      refilledAt = now;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.DeleteOptions;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Handles the filter-based delete endpoints (e.g., `DELETE /api/todos`),
+ * which delete every item that matches the same filters the list endpoint
+ * takes, with one `deleteMany`.
+ * <p>
+ * Since that can delete a lot at once, there are some guard rails:
+ * <ul>
+ *   <li>At least one filter is required, so there's no way to delete a
+ *   whole collection by accident.</li>
+ *   <li>`?dryrun=true` only counts the matching items.</li>
+ *   <li>`?max=N` (`DEFAULT_MAX` if it's missing) caps how many items may
+ *   be deleted. If more than that match, nothing is deleted and the
+ *   request is refused.</li>
+ * </ul>
+ * The cap is checked with a count just before the delete, so items that
+ * start matching in between can still slip in; it's a guard against
+ * mistakes, not a hard limit.
+ */
+public final class BulkDelete {
+
+  /** The query parameter that asks for a count instead of a delete. */
+  public static final String DRY_RUN_PARAMETER = "dryrun";
+
+  /** The query parameter that caps how many items may be deleted. */
+  public static final String MAX_PARAMETER = "max";
+
+  /** How many items may be deleted when the request doesn't say. */
+  public static final int DEFAULT_MAX = 1_000;
+
+  private BulkDelete() {
+  }
+
+  /**
+   * Delete (or, for a dry run, count) the items that match the filter,
+   * and report how many that was.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to delete from
+   * @param filter the filter built from the request's query parameters
+   * @param collation the collation to match with, or `null` for the default
+   * @return the number of items deleted (always 0 for a dry run)
+   */
+  public static long handle(Context ctx, MongoCollection<?> collection, Bson filter, Collation collation) {
+    if (new Document().equals(filter)) {
+      throw new BadRequestResponse("A bulk delete needs at least one filter.");
+    }
+    boolean dryRun = ctx.queryParamMap().containsKey(DRY_RUN_PARAMETER)
+      && ctx.queryParamAsClass(DRY_RUN_PARAMETER, Boolean.class).get();
+    int max = DEFAULT_MAX;
+    if (ctx.queryParamMap().containsKey(MAX_PARAMETER)) {
+      max = ctx.queryParamAsClass(MAX_PARAMETER, Integer.class)
+        .check(it -> it > 0, "The maximum to delete must be greater than zero")
+        .get();
+    }
+
+    long matched;
+    long deleted = 0;
+    if (dryRun) {
+      matched = collection.countDocuments(filter, new CountOptions().collation(collation));
+    } else {
+      // Counting one past the cap is enough to know we're over it.
+      int countLimit = (int) Math.min((long) max + 1, Integer.MAX_VALUE);
+      matched = collection.countDocuments(filter, new CountOptions().collation(collation).limit(countLimit));
+      if (matched > max) {
+        throw new BadRequestResponse(
+          "More than " + max + " items match; pass a larger `" + MAX_PARAMETER + "` to delete them all.");
+      }
+      deleted = collection.deleteMany(filter, new DeleteOptions().collation(collation)).getDeletedCount();
+    }
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("matched", matched);
+    response.put("deleted", deleted);
+    response.put(DRY_RUN_PARAMETER, dryRun);
+    ctx.json(response);
+    ctx.status(HttpStatus.OK);
+    return deleted;
+  }
+}
@@ -0,0 +1,270 @@
+package umm3601;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.mongojack.JacksonMongoCollection;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Handles the bulk insert endpoints (e.g., `POST /api/todos/bulk`), which
+ * take an array of new items instead of just one.
+ * <p>
+ * Every item is checked against the same rules as a single insert. The
+ * legal ones are written with unordered `insertMany` calls of at most
+ * `CHUNK_SIZE` items each, so a big import is a handful of round trips
+ * instead of one per item, and one failed write doesn't stop the rest.
+ * <p>
+ * The response reports on every item, in order: its new `id` if it was
+ * inserted, or the `error` that kept it out. The status is 201 if every
+ * item was inserted and 207 (Multi-Status) otherwise.
+ * <p>
+ * A request can hold at most `MAX_ITEMS` items in at most `MAX_BYTES`
+ * bytes. Bigger ones are turned away (with a 400 or a 413) as soon as
+ * they're found to be too big, before anything is written.
+ */
+public final class BulkInsert {
+
+  /** The most items a single bulk request may hold. */
+  public static final int MAX_ITEMS = 10_000;
+
+  /** The most items written by a single `insertMany`. */
+  public static final int CHUNK_SIZE = 1_000;
+
+  /** The most bytes a single bulk request body may hold (16 MB). */
+  public static final int MAX_BYTES = 16 * 1024 * 1024;
+
+  private BulkInsert() {
+  }
+
+  /**
+   * Read an array of new items from the request body, insert the legal
+   * ones, and report the outcome for each.
+   *
+   * @param <T> the type of the items
+   * @param ctx a Javalin HTTP context
+   * @param type the class of the items
+   * @param rules the rules every item has to pass
+   * @param prepare fills in anything the server adds to a legal item
+   *   (such as a user's avatar) before it's inserted
+   * @param collection the collection to insert into
+   * @param idOf gets the `_id` of an item once it's been inserted
+   * @return the number of items inserted
+   */
+  public static <T> int handle(
+      Context ctx,
+      Class<T> type,
+      List<ValidationRule<T>> rules,
+      Consumer<T> prepare,
+      JacksonMongoCollection<T> collection,
+      Function<T, String> idOf) {
+
+    // The array can come in any of the `WireFormat`s
+    WireFormat format = WireFormat.forContentType(ctx.contentType());
+    ObjectMapper mapper = format.reader();
+    List<JsonNode> body = readItems(ctx, format, mapper);
+
+    List<Map<String, Object>> results = new ArrayList<>(body.size());
+    List<T> pending = new ArrayList<>(CHUNK_SIZE);
+    List<Integer> pendingIndexes = new ArrayList<>(CHUNK_SIZE);
+    int inserted = 0;
+
+    for (int index = 0; index < body.size(); index++) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("index", index);
+      results.add(result);
+
+      String error;
+      T item = null;
+      try {
+        item = mapper.treeToValue(body.get(index), type);
+        error = item == null
+          ? "Item must be an object"
+          : ValidationRule.firstFailure(rules, item);
+      } catch (JsonProcessingException e) {
+        error = "Item couldn't be read: " + e.getOriginalMessage();
+      }
+      if (error != null) {
+        result.put("error", error);
+        continue;
+      }
+
+      prepare.accept(item);
+      pending.add(item);
+      pendingIndexes.add(index);
+      if (pending.size() == CHUNK_SIZE) {
+        inserted += insertChunk(collection, pending, pendingIndexes, results, idOf);
+      }
+    }
+    if (!pending.isEmpty()) {
+      inserted += insertChunk(collection, pending, pendingIndexes, results, idOf);
+    }
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("inserted", inserted);
+    response.put("failed", results.size() - inserted);
+    response.put("results", results);
+    ctx.json(response);
+    ctx.status(inserted == results.size() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+    return inserted;
+  }
+
+  /**
+   * Read the array of items in the request body, one at a time, so that
+   * a body that's too big is turned away without holding all of it.
+   * The size the client claims (if any) is checked before reading at all,
+   * and the bytes actually read are counted in case it lied.
+   */
+  private static List<JsonNode> readItems(Context ctx, WireFormat format, ObjectMapper mapper) {
+    if (ctx.contentLength() > MAX_BYTES) {
+      throw tooLarge();
+    }
+    List<JsonNode> items = new ArrayList<>();
+    InputStream limited = new LimitedInputStream(ctx.bodyInputStream(), MAX_BYTES);
+    try (JsonParser parser = mapper.getFactory().createParser(limited)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new BadRequestResponse("The request body must be an array.");
+      }
+      JsonToken token = parser.nextToken();
+      while (token != JsonToken.END_ARRAY) {
+        if (token == null) {
+          throw new BadRequestResponse("The request body couldn't be read as " + format.mediaType() + ".");
+        }
+        if (items.size() == MAX_ITEMS) {
+          throw new BadRequestResponse("A bulk request can hold at most " + MAX_ITEMS + " items.");
+        }
+        items.add(mapper.readTree(parser));
+        token = parser.nextToken();
+      }
+    } catch (TooLargeException e) {
+      throw tooLarge();
+    } catch (IOException e) {
+      throw new BadRequestResponse("The request body couldn't be read as " + format.mediaType() + ".");
+    }
+    return items;
+  }
+
+  private static HttpResponseException tooLarge() {
+    return new HttpResponseException(
+      HttpStatus.CONTENT_TOO_LARGE.getCode(),
+      "A bulk request can be at most " + MAX_BYTES + " bytes.");
+  }
+
+  /**
+   * Insert one chunk of legal items and record the outcome for each of
+   * them. The chunk is emptied afterwards, ready for the next one.
+   */
+  private static <T> int insertChunk(
+      JacksonMongoCollection<T> collection,
+      List<T> pending,
+      List<Integer> pendingIndexes,
+      List<Map<String, Object>> results,
+      Function<T, String> idOf) {
+
+    // The write errors are indexed by position in this chunk.
+    Map<Integer, String> writeErrors = new LinkedHashMap<>();
+    try {
+      collection.insertMany(pending, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError writeError : e.getWriteErrors()) {
+        writeErrors.put(writeError.getIndex(), writeError.getMessage());
+      }
+    } catch (MongoException e) {
+      // Something other than the items went wrong (the connection dropped,
+      // say), so we can't tell which of them were written. Report the
+      // whole chunk as failed and carry on with the next one.
+      for (int i = 0; i < pending.size(); i++) {
+        writeErrors.put(i, "The write failed: " + e.getMessage());
+      }
+    }
+
+    int inserted = 0;
+    for (int i = 0; i < pending.size(); i++) {
+      Map<String, Object> result = results.get(pendingIndexes.get(i));
+      String error = writeErrors.get(i);
+      if (error == null) {
+        // The driver assigns each item its `_id` before sending it.
+        result.put("id", idOf.apply(pending.get(i)));
+        inserted++;
+      } else {
+        result.put("error", error);
+      }
+    }
+    pending.clear();
+    pendingIndexes.clear();
+    return inserted;
+  }
+
+  /**
+   * Counts the bytes read through it, and fails once there are too many.
+   */
+  private static final class LimitedInputStream extends FilterInputStream {
+    private final long limit;
+    private long count;
+
+    LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read >= 0) {
+        counted(1);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        counted(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      counted(skipped);
+      return skipped;
+    }
+
+    private void counted(long read) throws TooLargeException {
+      count += read;
+      if (count > limit) {
+        throw new TooLargeException();
+      }
+    }
+  }
+
+  /**
+   * Thrown by `LimitedInputStream` once the body goes over the limit.
+   */
+  private static final class TooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+}
@@ -0,0 +1,69 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import org.bson.conversions.Bson;
+
+/**
+ * Case-insensitive matching that MongoDB can answer from an index.
+ * <p>
+ * A case-insensitive regex (`/ohmnet/i`) can't use an ordinary index, so
+ * it scans the whole collection. Instead, queries that run with the
+ * strength-2 (case-insensitive) `COLLATION` compare strings ignoring case,
+ * and can use any index that was built with that same collation. That
+ * means *both* the index and the query have to use it, so the controllers
+ * build their indexes with `index` and run their list queries with
+ * `COLLATION`.
+ */
+public final class CaseInsensitive {
+
+  /** Compare strings ignoring case (but not accents). */
+  public static final Collation COLLATION = Collation.builder()
+    .locale("en")
+    .collationStrength(CollationStrength.SECONDARY)
+    .build();
+
+  // In ICU collation (which MongoDB uses) U+FFFF sorts after every other
+  // character, so it makes an upper bound for all strings with a prefix.
+  private static final String MAX_CHARACTER = "\uFFFF";
+
+  private CaseInsensitive() {
+  }
+
+  /**
+   * An ascending index on the given fields that uses the case-insensitive
+   * collation. These are named with a `_ci` suffix so they don't clash with
+   * (default-named) simple-collation indexes on the same fields.
+   *
+   * @param fieldNames the fields to index, in order
+   * @return the index definition
+   */
+  public static IndexModel index(String... fieldNames) {
+    String name = String.join("_1_", fieldNames) + "_1_ci";
+    return new IndexModel(
+      Indexes.ascending(fieldNames),
+      new IndexOptions().name(name).collation(COLLATION));
+  }
+
+  /**
+   * A filter matching the strings in the given field that start with the
+   * given prefix, ignoring case. It's a range on the field rather than a
+   * regex, so (when the query uses `COLLATION`) it can be answered with an
+   * index scan.
+   *
+   * @param fieldName the field to match
+   * @param prefix the prefix the field should start with
+   * @return the filter
+   */
+  public static Bson startsWith(String fieldName, String prefix) {
+    return and(gte(fieldName, prefix), lt(fieldName, prefix + MAX_CHARACTER));
+  }
+}
@@ -0,0 +1,48 @@
+package umm3601;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Builds a Jetty connector that speaks HTTP/2 over plain TCP ("h2c") as
+ * well as HTTP/1.1, on the same port.
+ * <p>
+ * Over HTTP/1.1 a connection carries one request at a time, so a client
+ * that fans out many small requests (e.g., `/api/todos/{id}` for every
+ * todo on a page) either opens lots of connections or waits for each
+ * response before sending the next request. HTTP/2 multiplexes them all
+ * over one connection, so a slow response no longer holds up the ones
+ * behind it.
+ * <p>
+ * HTTP/1.1 clients are served as before. HTTP/2 clients can either start
+ * with the HTTP/2 preface ("prior knowledge") or upgrade an HTTP/1.1
+ * request with `Upgrade: h2c`, which is what `java.net.http.HttpClient`
+ * does. There's no TLS here, so browsers (which only do HTTP/2 over TLS)
+ * keep using HTTP/1.1.
+ */
+public final class CleartextHttp2 {
+
+  private CleartextHttp2() {
+  }
+
+  /**
+   * Make a connector for the given server that accepts both HTTP/1.1 and
+   * h2c.
+   *
+   * @param server the Jetty server the connector is for
+   * @param port the port to listen on
+   * @return the connector, which still has to be added to the server
+   */
+  public static ServerConnector connector(Server server, int port) {
+    HttpConfiguration httpConfig = new HttpConfiguration();
+    httpConfig.setSendServerVersion(false);
+    ServerConnector connector = new ServerConnector(server,
+      new HttpConnectionFactory(httpConfig),
+      new HTTP2CServerConnectionFactory(httpConfig));
+    connector.setPort(port);
+    return connector;
+  }
+}
@@ -0,0 +1,144 @@
+package umm3601;
+
+import java.security.SecureRandom;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A version number for a collection, used to build ETags for the responses
+ * that read from it.
+ * <p>
+ * Every handler that changes the collection calls `bump`, so an ETag built
+ * from the current version is still valid exactly as long as nothing has
+ * been added or deleted since. That lets us answer a conditional GET
+ * (`If-None-Match`) with a 304 *before* going to the database at all.
+ * <p>
+ * The version only counts changes made through this server process; a
+ * random per-process epoch is mixed in so that ETags handed out before a
+ * restart are never mistaken for current ones.
+ */
+public final class CollectionVersion {
+
+  // Where `isNotModified` leaves the ETag for `tag`
+  private static final String ETAG_ATTRIBUTE = "umm3601.etag";
+
+  private static final String EPOCH = Long.toHexString(new SecureRandom().nextLong());
+
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Record that the collection has changed, which invalidates every ETag
+   * handed out so far.
+   */
+  public void bump() {
+    version.incrementAndGet();
+  }
+
+  /**
+   * @return the current version, e.g., to key cached results by, so they
+   *   go stale as soon as the collection changes
+   */
+  public long current() {
+    return version.get();
+  }
+
+  /**
+   * Compute the ETag for the requested resource (its path and query string,
+   * and the format it's sent in) at the current version of the collection.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return a strong ETag, including the surrounding quotes
+   */
+  public String etag(Context ctx) {
+    return etag(ctx, null);
+  }
+
+  /**
+   * Compute the ETag for a single item at the current version of the
+   * collection. The item's ID is part of the ETag, so one item's ETag never
+   * matches another's (or a list's).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param id the ID of the requested item, or `null` for a list
+   * @return a strong ETag, including the surrounding quotes
+   */
+  public String etag(Context ctx, String id) {
+    String resource = Integer.toHexString(Objects.hash(
+      ctx.path(), ctx.queryString(), WireFormat.forResponse(ctx).mediaType(), id));
+    return "\"" + EPOCH + "-" + version.get() + "-" + resource + "\"";
+  }
+
+  /**
+   * Check the ETag for the requested list against the request's
+   * `If-None-Match` header; see `isNotModified(Context, String)`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return whether the client's copy is current (and a 304 has been set)
+   */
+  public boolean isNotModified(Context ctx) {
+    return isNotModified(ctx, null);
+  }
+
+  /**
+   * Check the ETag for the requested resource against the request's
+   * `If-None-Match` header. If the client's copy is current, the response
+   * status is set to 304 (along with the ETag) and the handler shouldn't
+   * write a body. Otherwise nothing is set yet: the handler calls `tag`
+   * once it knows it's sending a 200, so error responses never carry an
+   * ETag a client might cache.
+   * <p>
+   * This has to be called *before* reading from the database: if the
+   * collection changes in between, the client gets newer data under an
+   * older ETag, which just means it'll fetch it again next time. For the
+   * same reason, `If-None-Match: *` never matches: it's only meant to match
+   * if the resource exists, which we haven't checked yet.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param id the ID of the requested item, or `null` for a list
+   * @return whether the client's copy is current (and a 304 has been set)
+   */
+  public boolean isNotModified(Context ctx, String id) {
+    String etag = etag(ctx, id);
+    // Remember the ETag as of *now*, for `tag` to send with the 200.
+    ctx.attribute(ETAG_ATTRIBUTE, etag);
+
+    String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      // If-None-Match uses the weak comparison, so a `W/` prefix is ignored.
+      String tag = candidate.trim().replaceFirst("^W/", "");
+      if (tag.equals(etag)) {
+        setValidators(ctx, etag);
+        ctx.status(HttpStatus.NOT_MODIFIED);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Set the ETag for a successful response. The ETag is the one computed
+   * by `isNotModified` (before the database was read), if it was called.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void tag(Context ctx) {
+    String etag = ctx.attribute(ETAG_ATTRIBUTE);
+    setValidators(ctx, etag == null ? etag(ctx) : etag);
+  }
+
+  private static void setValidators(Context ctx, String etag) {
+    ctx.header(Header.ETAG, etag);
+    // Clients may keep a copy, but have to check back with us before using it.
+    ctx.header(Header.CACHE_CONTROL, "no-cache");
+    // The ETag (and the body) depend on the format the client accepts, so
+    // caches have to keep a copy per `Accept`, even of a JSON response.
+    ctx.header(Header.VARY, Header.ACCEPT);
+  }
+}
@@ -0,0 +1,106 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the indexes each collection needs, and makes sure they
+ * exist when the server starts up.
+ * <p>
+ * The controllers know which filters and sort orders their queries use, so
+ * they declare the indexes that serve them; the `Server` registers those
+ * here and calls `apply` before it starts taking requests. Creating an
+ * index that already exists (with the same keys and options) is a no-op in
+ * MongoDB, so it's safe to apply the registry every time the server starts.
+ * The collections are handled in parallel, since each one is an independent
+ * `createIndexes` call.
+ */
+public final class IndexRegistry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexRegistry.class);
+
+  private final Map<String, List<IndexModel>> indexesByCollection = new LinkedHashMap<>();
+
+  /**
+   * Register indexes that the given collection needs.
+   *
+   * @param collectionName the name of the collection
+   * @param indexes the indexes to create on that collection
+   * @return this registry, so calls can be chained
+   */
+  public IndexRegistry register(String collectionName, List<IndexModel> indexes) {
+    indexesByCollection
+      .computeIfAbsent(collectionName, name -> new ArrayList<>())
+      .addAll(indexes);
+    return this;
+  }
+
+  /**
+   * Create every registered index that doesn't already exist, logging
+   * which ones were created and which were already present. A failure on
+   * one collection is logged and doesn't stop the others.
+   *
+   * @param database the database holding the collections
+   * @return the names (as `collection.index`) of the indexes that were created
+   */
+  public List<String> apply(MongoDatabase database) {
+    List<String> created = new ArrayList<>();
+    if (indexesByCollection.isEmpty()) {
+      return created;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(indexesByCollection.size());
+    try {
+      Map<String, Future<List<String>>> results = new LinkedHashMap<>();
+      indexesByCollection.forEach((collectionName, indexes) ->
+        results.put(collectionName, executor.submit(() -> apply(database.getCollection(collectionName), indexes))));
+
+      for (Map.Entry<String, Future<List<String>>> result : results.entrySet()) {
+        try {
+          created.addAll(result.getValue().get());
+        } catch (ExecutionException e) {
+          LOGGER.error("Couldn't create the indexes on {}", result.getKey(), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+    return created;
+  }
+
+  private List<String> apply(MongoCollection<Document> collection, List<IndexModel> indexes) {
+    String collectionName = collection.getNamespace().getCollectionName();
+    Set<String> existing = collection.listIndexes()
+      .map(index -> index.getString("name"))
+      .into(new HashSet<>());
+
+    List<String> created = new ArrayList<>();
+    for (String name : collection.createIndexes(indexes)) {
+      if (existing.contains(name)) {
+        LOGGER.info("Index {} on {} was already present", name, collectionName);
+      } else {
+        LOGGER.info("Created index {} on {}", name, collectionName);
+        created.add(collectionName + "." + name);
+      }
+    }
+    return created;
+  }
+}
@@ -0,0 +1,255 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gathers single-item inserts that arrive close together into one
+ * `insertMany`.
+ * <p>
+ * Under a burst of `POST`s, every request doing its own `insertOne` means a
+ * round trip (and a wait for the acknowledgement) per item. Here callers
+ * hand their item to a background thread instead, which waits up to
+ * `maxWait` after the first item of a batch for more to arrive (or until
+ * it has `maxBatchSize` of them) and then inserts them all with one
+ * unordered `insertMany`. Each caller is then told how *its* item did:
+ * the driver assigns every item its own `_id` before sending it, and a
+ * write error only fails the item it belongs to.
+ * <p>
+ * The price is up to `maxWait` of extra latency for an insert that arrives
+ * when nothing else is going on, so the wait should be kept short.
+ *
+ * @param <T> the type of the items being inserted
+ */
+public final class InsertCoalescer<T> implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(InsertCoalescer.class);
+
+  // How often an idle worker checks whether it's been closed
+  private static final long IDLE_POLL_MILLIS = 100;
+
+  // How long `insert` waits for its batch to be written (on top of the
+  // time the batch is held open for), the same as the driver's default
+  // server selection timeout
+  private static final long INSERT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private final MongoCollection<T> collection;
+  private final int maxBatchSize;
+  private final long maxWaitNanos;
+  private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+  private final Thread worker;
+  // Held while checking `running` and queueing an item, and while
+  // clearing `running`, so nothing can be queued once `close` has
+  // started (where no one would ever take it off the queue)
+  private final Object submitLock = new Object();
+  private volatile boolean running = true;
+
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong items = new AtomicLong();
+  private final AtomicLong failedItems = new AtomicLong();
+  private final AtomicLong fullFlushes = new AtomicLong();
+  private final AtomicLong timedFlushes = new AtomicLong();
+  private final AtomicLong largestBatch = new AtomicLong();
+
+  /**
+   * Construct a coalescer and start its background thread.
+   *
+   * @param name a name for the background thread (e.g., the collection's)
+   * @param collection the collection to insert into
+   * @param maxBatchSize the most items to insert at once
+   * @param maxWait how long to wait for more items after the first one
+   *   of a batch arrives
+   */
+  public InsertCoalescer(String name, MongoCollection<T> collection, int maxBatchSize, Duration maxWait) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be at least 1");
+    }
+    this.collection = collection;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.worker = new Thread(this::run, "insert-coalescer-" + name);
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Queue an item to be inserted with the next batch.
+   *
+   * @param item the item to insert
+   * @return a future that completes with the item (now with its `_id`)
+   *   once it's been inserted, or with the error that kept it out
+   */
+  public CompletableFuture<T> submit(T item) {
+    Pending<T> pending = new Pending<>(item);
+    synchronized (submitLock) {
+      if (running) {
+        queue.add(pending);
+        return pending.future;
+      }
+    }
+    pending.future.completeExceptionally(new IllegalStateException("The insert coalescer has been closed"));
+    return pending.future;
+  }
+
+  /**
+   * Insert an item with the next batch, and wait until that's done. Errors
+   * are thrown just as `insertOne` would throw them; if the batch takes too
+   * long, this gives up with a `MongoTimeoutException` (although the item
+   * may still be inserted later).
+   *
+   * @param item the item to insert; its `_id` is set once this returns
+   */
+  public void insert(T item) {
+    try {
+      submit(item).get(maxWaitNanos + INSERT_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new MongoTimeoutException("Timed out waiting for the insert to be written");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the insert to be written", e);
+    }
+  }
+
+  /**
+   * @return how many batches and items have been inserted, how big the
+   *   batches were, and why they were sent
+   */
+  public Map<String, Long> stats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("maxBatchSize", (long) maxBatchSize);
+    stats.put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+    stats.put("queued", (long) queue.size());
+    stats.put("batches", batches.get());
+    stats.put("items", items.get());
+    stats.put("failedItems", failedItems.get());
+    stats.put("largestBatch", largestBatch.get());
+    // Batches sent because they were full vs. because the wait ran out
+    stats.put("fullFlushes", fullFlushes.get());
+    stats.put("timedFlushes", timedFlushes.get());
+    return stats;
+  }
+
+  /**
+   * Stop taking new items, insert the ones already queued, and stop the
+   * background thread.
+   */
+  @Override
+  public void close() {
+    synchronized (submitLock) {
+      running = false;
+    }
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // The worker only stops once the queue is empty, and nothing can be
+    // queued after `running` is cleared, so this is just in case the
+    // worker was interrupted.
+    IllegalStateException closed = new IllegalStateException("The insert coalescer has been closed");
+    for (Pending<T> pending = queue.poll(); pending != null; pending = queue.poll()) {
+      pending.future.completeExceptionally(closed);
+    }
+  }
+
+  private void run() {
+    List<Pending<T>> batch = new ArrayList<>(maxBatchSize);
+    try {
+      while (running || !queue.isEmpty()) {
+        Pending<T> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatchSize) {
+          Pending<T> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        flush(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      LOGGER.warn("Insert coalescer was interrupted; failing {} queued inserts", batch.size() + queue.size());
+      IllegalStateException error = new IllegalStateException("The insert coalescer was interrupted");
+      batch.forEach(pending -> pending.future.completeExceptionally(error));
+      queue.forEach(pending -> pending.future.completeExceptionally(error));
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void flush(List<Pending<T>> batch) {
+    batches.incrementAndGet();
+    items.addAndGet(batch.size());
+    largestBatch.accumulateAndGet(batch.size(), Math::max);
+    (batch.size() == maxBatchSize ? fullFlushes : timedFlushes).incrementAndGet();
+
+    List<T> documents = new ArrayList<>(batch.size());
+    batch.forEach(pending -> documents.add(pending.item));
+
+    // Write errors are reported by position in the batch.
+    Map<Integer, RuntimeException> errors = new HashMap<>();
+    try {
+      collection.insertMany(documents, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError writeError : e.getWriteErrors()) {
+        errors.put(writeError.getIndex(), new MongoWriteException(writeError, e.getServerAddress()));
+      }
+    } catch (RuntimeException e) {
+      // Nothing we can pin on one item (e.g., the server is unreachable)
+      LOGGER.warn("Inserting a batch of {} failed", batch.size(), e);
+      failedItems.addAndGet(batch.size());
+      batch.forEach(pending -> pending.future.completeExceptionally(e));
+      return;
+    }
+
+    failedItems.addAndGet(errors.size());
+    for (int i = 0; i < batch.size(); i++) {
+      Pending<T> pending = batch.get(i);
+      RuntimeException error = errors.get(i);
+      if (error == null) {
+        pending.future.complete(pending.item);
+      } else {
+        pending.future.completeExceptionally(error);
+      }
+    }
+  }
+
+  private static final class Pending<T> {
+    private final T item;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    Pending(T item) {
+      this.item = item;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.mongodb.client.model.Sorts;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Support for keyset (a.k.a. "cursor" or "seek") pagination of the
+ * list endpoints.
+ * <p>
+ * Rather than using `skip`, which makes MongoDB walk past every document
+ * on the earlier pages, each page remembers the (sort key, `_id`) pair of
+ * the last document it returned. The next page then starts with a range
+ * predicate on that pair, so every page costs the same no matter how deep
+ * into the results it is.
+ * <p>
+ * The pair is handed to the client as an opaque, URL-safe token; clients
+ * should just pass it back unchanged in the `after` query parameter.
+ */
+public final class KeysetCursor {
+
+  /** The response header that carries the cursor for the next page. */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  /** The largest page a client is allowed to ask for. */
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  private static final String ID_KEY = "_id";
+  private static final String VALUE_FIELD = "v";
+  private static final String ID_FIELD = "id";
+
+  private KeysetCursor() {
+  }
+
+  /**
+   * Build the sort order for a paged query. The `_id` is always added as a
+   * tie-breaker (in the same direction as the main sort key) so that the
+   * order is total, which keyset pagination depends on.
+   *
+   * @param sortBy the field to sort on
+   * @param descending whether to sort in descending order
+   * @return the sort specification
+   */
+  public static Bson sort(String sortBy, boolean descending) {
+    return descending
+      ? Sorts.orderBy(Sorts.descending(sortBy), Sorts.descending(ID_KEY))
+      : Sorts.orderBy(Sorts.ascending(sortBy), Sorts.ascending(ID_KEY));
+  }
+
+  /**
+   * Build the cursor token that resumes right after the given document.
+   *
+   * @param lastDocument the last document on the current page; it must
+   *   contain the `_id` and (if present) the value of the sort field
+   * @param sortBy the field the results are sorted on
+   * @return an opaque, URL-safe cursor token
+   */
+  public static String encode(Document lastDocument, String sortBy) {
+    Object sortValue = lastDocument.getEmbedded(Arrays.asList(sortBy.split("\\.")), Object.class);
+    Document cursor = new Document(VALUE_FIELD, sortValue).append(ID_FIELD, lastDocument.get(ID_KEY));
+    return Base64.getUrlEncoder()
+      .withoutPadding()
+      .encodeToString(cursor.toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Turn a cursor token back into the range predicate that selects the
+   * documents that come after it in the given sort order.
+   *
+   * @param token a cursor token produced by `encode`
+   * @param sortBy the field the results are sorted on
+   * @param descending whether the results are sorted in descending order
+   * @return a filter matching only the documents after the cursor
+   * @throws BadRequestResponse if the token isn't a legal cursor
+   */
+  public static Bson after(String token, String sortBy, boolean descending) {
+    Document cursor;
+    try {
+      cursor = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException | JsonParseException e) {
+      throw new BadRequestResponse("The requested cursor wasn't a legal page cursor.");
+    }
+    if (!cursor.containsKey(VALUE_FIELD) || !(cursor.get(ID_FIELD) instanceof ObjectId)) {
+      throw new BadRequestResponse("The requested cursor wasn't a legal page cursor.");
+    }
+    Object value = cursor.get(VALUE_FIELD);
+    ObjectId id = cursor.getObjectId(ID_FIELD);
+
+    // Documents that tie with the cursor on the sort key are ordered by `_id`.
+    Bson tieBreak = and(eq(sortBy, value), descending ? lt(ID_KEY, id) : gt(ID_KEY, id));
+
+    // MongoDB sorts missing and null values before everything else, and
+    // range operators never match null, so those have to be handled
+    // separately: they come first in ascending order and last in descending.
+    if (value == null) {
+      return descending ? tieBreak : or(tieBreak, ne(sortBy, null));
+    }
+    return descending
+      ? or(lt(sortBy, value), tieBreak, eq(sortBy, null))
+      : or(gt(sortBy, value), tieBreak);
+  }
+}
@@ -0,0 +1,142 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * A small, bounded, thread-safe read-through cache with a time-to-live on
+ * every entry.
+ * <p>
+ * This is a thin wrapper around a Caffeine cache, which is concurrent (there's
+ * no single lock for every lookup to queue on) and evicts with an
+ * approximation of least-recently-used that also takes into account how
+ * often an entry is used.
+ * <p>
+ * Lookups go through `get(key, loader)`: on a miss the loader is called (to
+ * go to the database, say) and its result is remembered. Concurrent misses
+ * on the same key wait for a single load rather than each loading it.
+ * Loaders must not use the cache themselves.
+ * <p>
+ * Invalidating a key that's being loaded waits for the load to finish, so
+ * a (possibly stale) result never outlives the invalidation. Caffeine
+ * doesn't promise that for `invalidateAll`, so the cache counts those
+ * itself: a load that was under way during one is dropped again as soon
+ * as it finishes. Its caller still gets the value it loaded, which is no
+ * staler than if the read had happened just before the invalidation.
+ * <p>
+ * The cache counts hits, misses, evictions (because it was full) and
+ * expirations (because the entry was too old), so it can be sized against
+ * real traffic.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public final class LruCache<K, V> {
+
+  private final int maxSize;
+
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  // Bumped by every `invalidateAll`, so loads that were under way during
+  // one can tell that their result may be out of date
+  private final AtomicLong generation = new AtomicLong();
+
+  private final Cache<K, V> entries;
+
+  /**
+   * Construct a cache.
+   *
+   * @param maxSize the most entries to hold before evicting one
+   * @param ttl how long an entry stays valid after it's loaded
+   */
+  public LruCache(int maxSize, Duration ttl) {
+    this(maxSize, ttl, System::nanoTime);
+  }
+
+  LruCache(int maxSize, Duration ttl, LongSupplier nanoClock) {
+    this.maxSize = maxSize;
+    this.entries = Caffeine.newBuilder()
+      .maximumSize(maxSize)
+      .expireAfterWrite(ttl)
+      .ticker(nanoClock::getAsLong)
+      // Do the housekeeping on the calling thread, rather than in the
+      // common fork-join pool, so the counts are up to date when we return.
+      .executor(Runnable::run)
+      .evictionListener((K key, V value, RemovalCause cause) -> {
+        if (cause == RemovalCause.SIZE) {
+          evictions.incrementAndGet();
+        } else if (cause == RemovalCause.EXPIRED) {
+          expirations.incrementAndGet();
+        }
+      })
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Get the value for the given key, loading (and caching) it if it isn't
+   * cached or has expired. A `null` result from the loader isn't cached.
+   *
+   * @param key the key to look up
+   * @param loader computes the value for a key that isn't cached
+   * @return the (possibly cached) value, or `null` if the loader found none
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    long startGeneration = generation.get();
+    V value = entries.get(key, loader);
+    if (value != null && generation.get() != startGeneration) {
+      entries.invalidate(key);
+    }
+    return value;
+  }
+
+  /**
+   * Forget the cached value for the given key, if there is one.
+   *
+   * @param key the key to forget
+   */
+  public void invalidate(K key) {
+    entries.invalidate(key);
+  }
+
+  /**
+   * Forget every cached value.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    entries.invalidateAll();
+  }
+
+  /**
+   * @return the number of entries currently cached
+   */
+  public int size() {
+    // Drop anything that has expired or is over the limit first, so the
+    // count isn't an overestimate.
+    entries.cleanUp();
+    return (int) entries.estimatedSize();
+  }
+
+  /**
+   * @return the cache's size and its hit, miss, eviction and expiration counts
+   */
+  public Map<String, Long> stats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("size", (long) size());
+    stats.put("maxSize", (long) maxSize);
+    stats.put("hits", entries.stats().hitCount());
+    stats.put("misses", entries.stats().missCount());
+    stats.put("evictions", evictions.get());
+    stats.put("expirations", expirations.get());
+    return stats;
+  }
+}
@@ -0,0 +1,154 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.mongodb.event.CommandListener;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * The server's metrics, served in Prometheus' text format.
+ * <p>
+ * Every request is timed (as `http_server_requests_seconds`, with a
+ * histogram so percentiles can be worked out across servers), tagged with
+ * its method, route (e.g., `/api/users/{id}`, not the actual id), status,
+ * and outcome; responses with a 5xx status are also counted in
+ * `http_server_errors_total`. MongoDB commands are timed by a driver
+ * `CommandListener` (`mongodb_driver_commands_seconds`), and the JVM's
+ * memory, garbage collection, threads, and CPU are reported as well.
+ * <p>
+ * The numbers from our own `stats()` maps (caches, connection pool, insert
+ * batching) can be added as gauges with `registerStats`.
+ */
+public final class Metrics {
+
+  /** Where the metrics are served. */
+  public static final String PATH = "/metrics";
+
+  static final String REQUESTS = "http.server.requests";
+  static final String ERRORS = "http.server.errors";
+
+  // Requests that didn't match a route are all lumped together, so that
+  // people poking at random URLs don't create a time series each.
+  static final String UNMATCHED_ROUTE = "UNMATCHED";
+
+  private static final String START_ATTRIBUTE = "umm3601.metrics.start";
+
+  private static final int CLIENT_ERROR = 400;
+  private static final int SERVER_ERROR = 500;
+
+  private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+  /**
+   * Construct the metrics, including the JVM ones.
+   */
+  public Metrics() {
+    new JvmMemoryMetrics().bindTo(registry);
+    new JvmGcMetrics().bindTo(registry);
+    new JvmThreadMetrics().bindTo(registry);
+    new ClassLoaderMetrics().bindTo(registry);
+    new ProcessorMetrics().bindTo(registry);
+  }
+
+  /**
+   * @return the registry the metrics are kept in
+   */
+  public PrometheusMeterRegistry registry() {
+    return registry;
+  }
+
+  /**
+   * @return a listener, to add to the MongoDB client's settings, that
+   *   times every command the driver sends
+   */
+  public CommandListener mongoCommandListener() {
+    return new MongoMetricsCommandListener(registry);
+  }
+
+  /**
+   * Report the numbers in a `stats()` map as gauges named `name`, with a
+   * `stat` tag for each key. The keys are read once, now; values that
+   * aren't numbers are skipped.
+   *
+   * @param name the name of the gauges
+   * @param tags tags to tell this map's gauges apart from others with
+   *   the same name (e.g., `cache=users`)
+   * @param stats gets the current map
+   */
+  public void registerStats(String name, Tags tags, Supplier<? extends Map<String, ?>> stats) {
+    stats.get().forEach((key, value) -> {
+      if (value instanceof Number) {
+        Gauge.builder(name, () -> (Number) stats.get().get(key))
+          .tags(tags)
+          .tag("stat", key)
+          .register(registry);
+      }
+    });
+  }
+
+  /**
+   * Time every request to the server, and serve the metrics at `PATH`.
+   *
+   * @param server the server to instrument
+   */
+  public void instrument(Javalin server) {
+    server.before(this::startTimer);
+    server.after(this::stopTimer);
+    server.get(PATH, ctx -> ctx.contentType(TextFormat.CONTENT_TYPE_004).result(registry.scrape()));
+  }
+
+  void startTimer(Context ctx) {
+    ctx.attribute(START_ATTRIBUTE, System.nanoTime());
+  }
+
+  // After-handlers run once the response is settled, even if the handler
+  // threw or returned a future, so the status is the one that's sent.
+  void stopTimer(Context ctx) {
+    Long start = ctx.attribute(START_ATTRIBUTE);
+    if (start == null) {
+      return;
+    }
+    int status = ctx.statusCode();
+    String route = ctx.endpointHandlerPath();
+    if (route == null || !route.startsWith("/")) {
+      route = UNMATCHED_ROUTE;
+    }
+    Tags tags = Tags.of("method", ctx.method().name(), "uri", route, "status", String.valueOf(status));
+
+    Timer.builder(REQUESTS)
+      .tags(tags)
+      .tag("outcome", outcome(status))
+      .publishPercentileHistogram()
+      .register(registry)
+      .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    if (status >= SERVER_ERROR) {
+      Counter.builder(ERRORS).tags(tags).register(registry).increment();
+    }
+  }
+
+  private static String outcome(int status) {
+    if (status >= SERVER_ERROR) {
+      return "SERVER_ERROR";
+    } else if (status >= CLIENT_ERROR) {
+      return "CLIENT_ERROR";
+    } else {
+      return "SUCCESS";
+    }
+  }
+}
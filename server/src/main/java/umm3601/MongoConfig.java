@@ -0,0 +1,183 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.event.ConnectionPoolListener;
+
+import org.bson.UuidRepresentation;
+
+/**
+ * The settings for our MongoDB client, read from the environment or a
+ * properties file.
+ * <p>
+ * Each setting has a property name (e.g., `mongo.pool.maxSize`) and an
+ * environment variable named after it (`MONGO_POOL_MAX_SIZE`). The
+ * environment wins; otherwise the value comes from the properties file
+ * named by `MONGO_CONFIG` (default `mongo.properties`, if it exists).
+ * Settings that aren't given anywhere keep the driver's defaults.
+ * <p>
+ * The settings are:
+ * <ul>
+ *   <li>`mongo.addr`, `mongo.db`: the server's host (default `localhost`)
+ *   and the database name (default `dev`)</li>
+ *   <li>`mongo.pool.maxSize`, `mongo.pool.minSize`: how many connections
+ *   the pool may hold, and keeps open</li>
+ *   <li>`mongo.pool.maxWaitMillis`: how long a request waits for a free
+ *   connection before giving up</li>
+ *   <li>`mongo.pool.maxIdleMillis`: how long an unused connection is
+ *   kept</li>
+ *   <li>`mongo.pool.maxConnecting`: how many connections may be opened at
+ *   once</li>
+ *   <li>`mongo.socket.connectTimeoutMillis`, `mongo.socket.readTimeoutMillis`:
+ *   socket timeouts</li>
+ *   <li>`mongo.serverSelectionTimeoutMillis`: how long to wait for a
+ *   suitable server</li>
+ *   <li>`mongo.readPreference`: e.g., `primary` or `secondaryPreferred`</li>
+ * </ul>
+ */
+public final class MongoConfig {
+
+  static final String ADDR = "mongo.addr";
+  static final String DB = "mongo.db";
+  static final String POOL_MAX_SIZE = "mongo.pool.maxSize";
+  static final String POOL_MIN_SIZE = "mongo.pool.minSize";
+  static final String POOL_MAX_WAIT_MILLIS = "mongo.pool.maxWaitMillis";
+  static final String POOL_MAX_IDLE_MILLIS = "mongo.pool.maxIdleMillis";
+  static final String POOL_MAX_CONNECTING = "mongo.pool.maxConnecting";
+  static final String CONNECT_TIMEOUT_MILLIS = "mongo.socket.connectTimeoutMillis";
+  static final String READ_TIMEOUT_MILLIS = "mongo.socket.readTimeoutMillis";
+  static final String SERVER_SELECTION_TIMEOUT_MILLIS = "mongo.serverSelectionTimeoutMillis";
+  static final String READ_PREFERENCE = "mongo.readPreference";
+
+  private static final String[] KEYS = {
+    ADDR, DB, POOL_MAX_SIZE, POOL_MIN_SIZE, POOL_MAX_WAIT_MILLIS, POOL_MAX_IDLE_MILLIS, POOL_MAX_CONNECTING,
+    CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, SERVER_SELECTION_TIMEOUT_MILLIS, READ_PREFERENCE,
+  };
+
+  private final Map<String, String> values = new LinkedHashMap<>();
+
+  MongoConfig(Map<String, String> environment, Properties properties) {
+    for (String key : KEYS) {
+      String value = environment.getOrDefault(environmentName(key), properties.getProperty(key));
+      if (value != null && !value.isBlank()) {
+        values.put(key, value.trim());
+      }
+    }
+  }
+
+  /**
+   * Read the settings from the environment and the properties file.
+   *
+   * @return the settings
+   */
+  public static MongoConfig load() {
+    Map<String, String> environment = System.getenv();
+    Path file = Paths.get(environment.getOrDefault("MONGO_CONFIG", "mongo.properties"));
+    Properties properties = new Properties();
+    if (Files.isReadable(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        properties.load(in);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Couldn't read the MongoDB settings from " + file, e);
+      }
+    }
+    return new MongoConfig(environment, properties);
+  }
+
+  /**
+   * The environment variable for a property, e.g., `MONGO_POOL_MAX_SIZE`
+   * for `mongo.pool.maxSize`.
+   */
+  static String environmentName(String key) {
+    return key.replaceAll("([a-z])([A-Z])", "$1_$2").replace('.', '_').toUpperCase(Locale.ROOT);
+  }
+
+  /**
+   * @return the MongoDB host
+   */
+  public String address() {
+    return values.getOrDefault(ADDR, "localhost");
+  }
+
+  /**
+   * @return the name of the database
+   */
+  public String databaseName() {
+    return values.getOrDefault(DB, "dev");
+  }
+
+  /**
+   * @return the settings that were given, by property name (for logging)
+   */
+  public Map<String, String> values() {
+    return Map.copyOf(values);
+  }
+
+  /**
+   * Build the client settings.
+   *
+   * @param poolListeners listeners to add to the connection pool (e.g., a
+   *   `PoolMonitor`)
+   * @return the settings for a (sync or reactive) MongoDB client
+   */
+  public MongoClientSettings clientSettings(ConnectionPoolListener... poolListeners) {
+    MongoClientSettings.Builder builder = MongoClientSettings.builder()
+      .applyToClusterSettings(cluster -> {
+        cluster.hosts(Arrays.asList(new ServerAddress(address())));
+        ifSet(SERVER_SELECTION_TIMEOUT_MILLIS, millis ->
+          cluster.serverSelectionTimeout(millis, TimeUnit.MILLISECONDS));
+      })
+      .applyToConnectionPoolSettings(pool -> {
+        ifSet(POOL_MAX_SIZE, size -> pool.maxSize((int) size));
+        ifSet(POOL_MIN_SIZE, size -> pool.minSize((int) size));
+        ifSet(POOL_MAX_WAIT_MILLIS, millis -> pool.maxWaitTime(millis, TimeUnit.MILLISECONDS));
+        ifSet(POOL_MAX_IDLE_MILLIS, millis -> pool.maxConnectionIdleTime(millis, TimeUnit.MILLISECONDS));
+        ifSet(POOL_MAX_CONNECTING, count -> pool.maxConnecting((int) count));
+        for (ConnectionPoolListener listener : poolListeners) {
+          pool.addConnectionPoolListener(listener);
+        }
+      })
+      .applyToSocketSettings(socket -> {
+        ifSet(CONNECT_TIMEOUT_MILLIS, millis -> socket.connectTimeout((int) millis, TimeUnit.MILLISECONDS));
+        ifSet(READ_TIMEOUT_MILLIS, millis -> socket.readTimeout((int) millis, TimeUnit.MILLISECONDS));
+      })
+      // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
+      // a non-standard way. This option says to use the standard encoding.
+      // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
+      .uuidRepresentation(UuidRepresentation.STANDARD);
+    if (values.containsKey(READ_PREFERENCE)) {
+      builder.readPreference(ReadPreference.valueOf(values.get(READ_PREFERENCE)));
+    }
+    return builder.build();
+  }
+
+  private void ifSet(String key, LongConsumer apply) {
+    String value = values.get(key);
+    if (value == null) {
+      return;
+    }
+    long number;
+    try {
+      number = Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+        "The MongoDB setting " + key + " (" + environmentName(key) + ") must be a number, not " + value, e);
+    }
+    apply.accept(number);
+  }
+}
@@ -0,0 +1,71 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Converts between our model classes (`Todo`, `User`) and plain BSON
+ * `Document`s, for code that uses the MongoDB driver directly rather than
+ * through MongoJack (e.g., the reactive-streams driver).
+ * <p>
+ * The models are plain public fields, so the conversion just goes through
+ * a `Map`; the only special case is `_id`, which is a hex `String` in the
+ * models and an `ObjectId` in the database. MongoJack's annotations are
+ * ignored, since they only make sense inside MongoJack.
+ */
+public final class PojoDocuments {
+
+  private static final String ID_KEY = "_id";
+
+  private static final ObjectMapper MAPPER = JsonMapper.builder()
+    .disable(MapperFeature.USE_ANNOTATIONS)
+    // Extra fields (e.g., a text search score) are left out
+    .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+    .build();
+
+  private static final TypeReference<LinkedHashMap<String, Object>> MAP_TYPE = new TypeReference<>() {
+  };
+
+  private PojoDocuments() {
+  }
+
+  /**
+   * @param <T> the model class
+   * @param document a document read from the database
+   * @param type the model class
+   * @return the document as an instance of the model class
+   */
+  public static <T> T toPojo(Document document, Class<T> type) {
+    Map<String, Object> fields = new LinkedHashMap<>(document);
+    Object id = fields.get(ID_KEY);
+    if (id instanceof ObjectId) {
+      fields.put(ID_KEY, ((ObjectId) id).toHexString());
+    }
+    return MAPPER.convertValue(fields, type);
+  }
+
+  /**
+   * @param pojo an instance of a model class
+   * @return it as a document, ready to be written to the database; if it
+   *   has no `_id` yet, the driver will assign one when it's inserted
+   */
+  public static Document toDocument(Object pojo) {
+    Map<String, Object> fields = MAPPER.convertValue(pojo, MAP_TYPE);
+    Object id = fields.remove(ID_KEY);
+    Document document = new Document();
+    if (id != null) {
+      document.put(ID_KEY, new ObjectId(id.toString()));
+    }
+    document.putAll(fields);
+    return document;
+  }
+}
@@ -0,0 +1,187 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Watches the MongoDB driver's connection pool, so it can be sized from
+ * what it's actually doing rather than by guesswork.
+ * <p>
+ * It keeps track of how many connections are open and in use (and the
+ * most that have ever been in use at once), how many requests are waiting
+ * for one, how long they waited, and how many gave up. If requests often
+ * wait, or the pool is often fully in use, it's too small (or the queries
+ * are too slow); if it never gets close to full, it's bigger than it
+ * needs to be.
+ * <p>
+ * Wait times are measured from a check-out starting to it finishing on
+ * the same thread, which is how the synchronous driver works. The reactive
+ * driver can start and finish check-outs on any of its threads, and the
+ * (4.8) driver's events don't say which start goes with which finish, so
+ * a monitor for a reactive client has to be made with
+ * `measureWaits` off. It counts check-outs, but its stats leave the wait
+ * times out rather than report ones that belong to other check-outs.
+ */
+public final class PoolMonitor implements ConnectionPoolListener {
+
+  // Upper bounds (in milliseconds) of the wait-time buckets; waits longer
+  // than the last one go in a final, open-ended bucket.
+  private static final long[] WAIT_BUCKET_MILLIS = {1, 10, 100, 1000};
+
+  private final boolean measureWaits;
+  private final ThreadLocal<Long> checkOutStartedAt = new ThreadLocal<>();
+
+  private final AtomicInteger maxSize = new AtomicInteger();
+  private final AtomicInteger open = new AtomicInteger();
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final AtomicInteger peakInUse = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  private final LongAdder checkOuts = new LongAdder();
+  private final LongAdder failedCheckOuts = new LongAdder();
+  private final LongAdder timedOutCheckOuts = new LongAdder();
+  private final LongAdder measuredWaits = new LongAdder();
+  private final LongAdder totalWaitNanos = new LongAdder();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final LongAdder[] waitBuckets = new LongAdder[WAIT_BUCKET_MILLIS.length + 1];
+
+  /**
+   * Construct a monitor for a synchronous client, to be added to its
+   * connection pool settings (see `MongoConfig.clientSettings`).
+   */
+  public PoolMonitor() {
+    this(true);
+  }
+
+  /**
+   * Construct a monitor, to be added to a client's connection pool
+   * settings (see `MongoConfig.clientSettings`).
+   *
+   * @param measureWaits whether to measure how long check-outs wait, which
+   *   only works for a synchronous client
+   */
+  public PoolMonitor(boolean measureWaits) {
+    this.measureWaits = measureWaits;
+    for (int i = 0; i < waitBuckets.length; i++) {
+      waitBuckets[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+    maxSize.addAndGet(event.getSettings().getMaxSize());
+  }
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    open.incrementAndGet();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    open.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waiting.incrementAndGet();
+    if (measureWaits) {
+      checkOutStartedAt.set(System.nanoTime());
+    }
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waiting.decrementAndGet();
+    checkOuts.increment();
+    peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+    recordWait();
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waiting.decrementAndGet();
+    failedCheckOuts.increment();
+    if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+      timedOutCheckOuts.increment();
+    }
+    recordWait();
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    inUse.decrementAndGet();
+  }
+
+  private void recordWait() {
+    Long startedAt = checkOutStartedAt.get();
+    if (startedAt == null) {
+      return;
+    }
+    checkOutStartedAt.remove();
+    long waitNanos = System.nanoTime() - startedAt;
+    measuredWaits.increment();
+    totalWaitNanos.add(waitNanos);
+    maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    int bucket = 0;
+    while (bucket < WAIT_BUCKET_MILLIS.length && waitMillis >= WAIT_BUCKET_MILLIS[bucket]) {
+      bucket++;
+    }
+    waitBuckets[bucket].increment();
+  }
+
+  /**
+   * @return the fraction (between 0 and 1) of the pool's connections that
+   *   are in use right now
+   */
+  public double saturation() {
+    int size = maxSize.get();
+    return size == 0 ? 0 : inUse.get() / (double) size;
+  }
+
+  /**
+   * @return the pool's current state and its check-out counts and (if
+   *   they're measured) wait times so far
+   */
+  public Map<String, Object> stats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("maxSize", maxSize.get());
+    stats.put("open", open.get());
+    stats.put("inUse", inUse.get());
+    stats.put("peakInUse", peakInUse.get());
+    stats.put("saturation", saturation());
+    stats.put("waiting", waiting.get());
+    stats.put("checkOuts", checkOuts.sum());
+    stats.put("failedCheckOuts", failedCheckOuts.sum());
+    stats.put("timedOutCheckOuts", timedOutCheckOuts.sum());
+    if (!measureWaits) {
+      return stats;
+    }
+
+    long waits = measuredWaits.sum();
+    stats.put("meanWaitMicros", waits == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / waits));
+    stats.put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    for (int i = 0; i < WAIT_BUCKET_MILLIS.length; i++) {
+      histogram.put("<" + WAIT_BUCKET_MILLIS[i] + "ms", waitBuckets[i].sum());
+    }
+    histogram.put(">=" + WAIT_BUCKET_MILLIS[WAIT_BUCKET_MILLIS.length - 1] + "ms",
+      waitBuckets[WAIT_BUCKET_MILLIS.length].sum());
+    stats.put("waits", histogram);
+    return stats;
+  }
+}
@@ -0,0 +1,208 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+import com.mongodb.MongoInterruptedException;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Turns the `Publisher`s the reactive MongoDB driver returns into
+ * `CompletableFuture`s, which is what Javalin's `ctx.future` takes.
+ * <p>
+ * `toList` and `first` ask for everything up front, so they're only meant
+ * for results that are small anyway: single documents, and pages (which
+ * `KeysetCursor.MAX_PAGE_SIZE` bounds). Results of any size should be read
+ * with `iterate`, which only asks for a batch at a time.
+ */
+public final class Publishers {
+
+  /** How many items `iterate` asks for (and holds on to) at a time. */
+  public static final int BATCH_SIZE = 100;
+
+  // Put on an `iterate` queue once there are no more items
+  private static final Object END = new Object();
+
+  private Publishers() {
+  }
+
+  /**
+   * @param <T> the type of the items
+   * @param publisher a publisher of any number of items
+   * @return a future that completes with all the items, in order
+   */
+  public static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+    CompletableFuture<List<T>> future = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private final List<T> items = new ArrayList<>();
+
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(T item) {
+        items.add(item);
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        future.complete(items);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * @param <T> the type of the item
+   * @param publisher a publisher of at most one item we care about
+   * @return a future that completes with the first item, or `null` if
+   *   there wasn't one
+   */
+  public static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private Subscription subscription;
+
+      @Override
+      public void onSubscribe(Subscription s) {
+        subscription = s;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(T item) {
+        future.complete(item);
+        subscription.cancel();
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        // Does nothing if there was an item
+        future.complete(null);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Read the items from a publisher one at a time, e.g., to write them
+   * out as they arrive with `StreamingResponse.writeArray`.
+   * <p>
+   * Only `BATCH_SIZE` items are asked for at a time, and the next batch
+   * isn't asked for until those have been taken, so no more than that are
+   * ever held in memory. Taking an item blocks until it arrives, so this is
+   * meant to be read on a thread that's free to wait (not the driver's).
+   * The iterator is `AutoCloseable`; closing it before the end cancels the
+   * rest of the results.
+   *
+   * @param <T> the type of the published items
+   * @param <R> the type of the items to read
+   * @param publisher a publisher of any number of items
+   * @param mapper turns each published item into one to read
+   * @return the items, in order; the publisher is subscribed to each time
+   *   a new iterator is asked for. An error from the publisher is thrown
+   *   from `next` (or `hasNext`).
+   */
+  public static <T, R> Iterable<R> iterate(Publisher<T> publisher, Function<? super T, ? extends R> mapper) {
+    return () -> new BatchIterator<>(publisher, mapper);
+  }
+
+  private static final class BatchIterator<T, R> implements Iterator<R>, AutoCloseable, Subscriber<T> {
+    private final Function<? super T, ? extends R> mapper;
+    // Items, then END or the error that ended them
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private volatile Subscription subscription;
+    private Object next;
+    private int taken;
+
+    BatchIterator(Publisher<T> publisher, Function<? super T, ? extends R> mapper) {
+      this.mapper = mapper;
+      publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+      subscription = s;
+      subscription.request(BATCH_SIZE);
+    }
+
+    @Override
+    public void onNext(T item) {
+      queue.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      queue.add(error);
+    }
+
+    @Override
+    public void onComplete() {
+      queue.add(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        try {
+          next = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          close();
+          throw new MongoInterruptedException("Interrupted while waiting for results", e);
+        }
+      }
+      if (next instanceof RuntimeException) {
+        throw (RuntimeException) next;
+      }
+      if (next instanceof Throwable) {
+        throw new IllegalStateException((Throwable) next);
+      }
+      return next != END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      T item = (T) next;
+      next = null;
+      // Ask for the next batch once this one has all been taken
+      taken++;
+      if (taken % BATCH_SIZE == 0) {
+        subscription.request(BATCH_SIZE);
+      }
+      return mapper.apply(item);
+    }
+
+    @Override
+    public void close() {
+      if (subscription != null && next != END) {
+        subscription.cancel();
+      }
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+
+/**
+ * Gzips responses for clients that accept it, and keeps count of what
+ * that gains and costs.
+ * <p>
+ * The list responses are long runs of very similar JSON, so they shrink a
+ * lot. Compression is done by Jetty's `GzipHandler`, which negotiates it
+ * through `Accept-Encoding`, works for streamed and asynchronous responses
+ * alike, and keeps ETags (and so 304s) working. Responses smaller than
+ * `minSize` aren't worth it and go out as they are. (Jetty 11 only does
+ * gzip; Brotli and zstd would need a newer Jetty.)
+ * <p>
+ * The deflaters it uses come from here, so we can count the bytes that
+ * went into them and came out, and time the compression itself; see
+ * `stats`.
+ */
+public final class ResponseCompression {
+
+  /** Responses smaller than this many bytes aren't compressed by default. */
+  public static final int DEFAULT_MIN_SIZE = 1024;
+  /** The default compression level (from 1, fastest, to 9, smallest). */
+  public static final int DEFAULT_LEVEL = 6;
+
+  private static final int POOL_CAPACITY = 1024;
+
+  private final int minSize;
+  private final int level;
+
+  private final LongAdder responses = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder deflateNanos = new LongAdder();
+
+  /**
+   * Construct the compression settings.
+   *
+   * @param minSize the smallest response (in bytes) to compress
+   * @param level the compression level, from 1 (fastest) to 9 (smallest)
+   */
+  public ResponseCompression(int minSize, int level) {
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("The compression level must be between 1 and 9, not " + level);
+    }
+    this.minSize = minSize;
+    this.level = level;
+  }
+
+  /**
+   * @return a handler that compresses responses, to go in front of the
+   *   server's servlet (e.g., with `ServletContextHandler.setGzipHandler`)
+   */
+  public GzipHandler handler() {
+    GzipHandler handler = new GzipHandler();
+    handler.setMinGzipSize(minSize);
+    handler.setDeflaterPool(new MeteredDeflaterPool());
+    return handler;
+  }
+
+  /**
+   * @return how many responses were compressed, the bytes that went in
+   *   and came out, what that saved, and how long the compressing took
+   */
+  public Map<String, Long> stats() {
+    long in = bytesIn.sum();
+    long out = bytesOut.sum();
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("minSize", (long) minSize);
+    stats.put("level", (long) level);
+    stats.put("responses", responses.sum());
+    stats.put("bytesIn", in);
+    stats.put("bytesOut", out);
+    stats.put("bytesSaved", in - out);
+    stats.put("deflateMicros", TimeUnit.NANOSECONDS.toMicros(deflateNanos.sum()));
+    return stats;
+  }
+
+  private final class MeteredDeflaterPool extends DeflaterPool {
+    MeteredDeflaterPool() {
+      // `nowrap`, since the handler writes the gzip header and trailer itself
+      super(POOL_CAPACITY, level, true);
+    }
+
+    @Override
+    protected Deflater newPooled() {
+      return new MeteredDeflater();
+    }
+  }
+
+  // Deflating is pure computation, so the time spent in `deflate` is
+  // (near enough) the CPU time compression costs. The other `deflate`
+  // methods all end up in these two.
+  private final class MeteredDeflater extends Deflater {
+    private boolean ended;
+
+    MeteredDeflater() {
+      super(level, true);
+    }
+
+    @Override
+    public int deflate(byte[] output, int off, int len, int flush) {
+      long start = System.nanoTime();
+      try {
+        return super.deflate(output, off, len, flush);
+      } finally {
+        deflateNanos.add(System.nanoTime() - start);
+      }
+    }
+
+    @Override
+    public int deflate(ByteBuffer output, int flush) {
+      long start = System.nanoTime();
+      try {
+        return super.deflate(output, flush);
+      } finally {
+        deflateNanos.add(System.nanoTime() - start);
+      }
+    }
+
+    // A deflater is reset (or ended) after each response, so that's when
+    // its byte counts are added up.
+    @Override
+    public void reset() {
+      record();
+      super.reset();
+    }
+
+    @Override
+    public void end() {
+      if (!ended) {
+        record();
+        ended = true;
+      }
+      super.end();
+    }
+
+    private void record() {
+      long in = getBytesRead();
+      if (in > 0) {
+        responses.increment();
+        bytesIn.add(in);
+        bytesOut.add(getBytesWritten());
+      }
+    }
+  }
+}
@@ -1,53 +1,199 @@
 package umm3601;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.mongodb.MongoClientSettings;
-import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandListener;
 
-import org.bson.UuidRepresentation;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import io.javalin.Javalin;
+import io.javalin.http.Handler;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
 import io.javalin.http.InternalServerErrorResponse;
+import io.micrometer.core.instrument.Tags;
+import umm3601.todo.AsyncTodoController;
+import umm3601.todo.Todo;
 import umm3601.todo.TodoController;
+import umm3601.user.AsyncUserController;
+import umm3601.user.User;
 import umm3601.user.UserController;
 
 public class Server {
 
   private static final int SERVER_PORT = 4567;
+  private static final long DEFAULT_INSERT_BATCH_WAIT_MILLIS = 2;
 
   public static void main(String[] args) {
 
-    // Get the MongoDB address and database name from environment variables and
-    // if they aren't set, use the defaults of "localhost" and "dev".
-    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
-    String databaseName = System.getenv().getOrDefault("MONGO_DB", "dev");
-
-    // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient
-      = MongoClients.create(MongoClientSettings
-        .builder()
-        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
-        // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
-        // a non-standard way. This option says to use the standard encoding.
-        // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
-        .uuidRepresentation(UuidRepresentation.STANDARD)
-        .build());
+    // Get the MongoDB address, database name, and client settings (pool
+    // size, timeouts, read preference, ...) from environment variables or
+    // a properties file; see `MongoConfig`. Anything that isn't set keeps
+    // its default (e.g., "localhost" and "dev" for the address and name).
+    MongoConfig mongoConfig = MongoConfig.load();
+    String databaseName = mongoConfig.databaseName();
+
+    // Setup the MongoDB client object with those settings, keep an eye on
+    // how its connection pool is doing, and time every command it sends.
+    // Finds that take longer than SLOW_QUERY_MILLIS are logged and
+    // explained (a negative threshold turns that off).
+    Metrics metrics = new Metrics();
+    PoolMonitor poolMonitor = new PoolMonitor();
+    long slowQueryMillis = Long.parseLong(System.getenv().getOrDefault(
+        "SLOW_QUERY_MILLIS", String.valueOf(SlowQueryLog.DEFAULT_THRESHOLD_MILLIS)));
+    SlowQueryLog slowQueryLog = new SlowQueryLog(slowQueryMillis);
+    List<CommandListener> commandListeners = new ArrayList<>();
+    commandListeners.add(metrics.mongoCommandListener());
+    if (slowQueryMillis >= 0) {
+      commandListeners.add(slowQueryLog);
+    }
+    MongoClientSettings mongoSettings = clientSettings(mongoConfig, poolMonitor, commandListeners);
+    MongoClient mongoClient = MongoClients.create(mongoSettings);
+    slowQueryLog.explainWith(mongoClient);
 
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // Make sure the indexes our queries rely on exist before we start
+    // taking requests. This is a no-op for indexes that are already there.
+    new IndexRegistry()
+      .register("todos", TodoController.INDEXES)
+      .register("users", UserController.INDEXES)
+      .apply(database);
+
+    // Size the single-item caches from environment variables, falling
+    // back to the controllers' defaults.
+    int cacheSize = Integer.parseInt(System.getenv().getOrDefault(
+        "CACHE_MAX_SIZE", String.valueOf(TodoController.DEFAULT_CACHE_SIZE)));
+    Duration cacheTtl = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault(
+        "CACHE_TTL_SECONDS", String.valueOf(TodoController.DEFAULT_CACHE_TTL.getSeconds()))));
+    LruCache<String, User> userCache = new LruCache<>(cacheSize, cacheTtl);
+    LruCache<String, Todo> todoCache = new LruCache<>(cacheSize, cacheTtl);
+
     // Initialize dependencies
-    UserController userController = new UserController(database);
-    TodoController todoController = new TodoController(database);
+    UserController userController = new UserController(database, userCache);
+    TodoController todoController = new TodoController(database, todoCache);
+
+    // The core list/get/add/delete handlers block a request thread for the
+    // whole database round trip. With MONGO_DRIVER=reactive they're served
+    // by controllers built on the reactive-streams driver instead, which
+    // hand the thread back while MongoDB works. The other endpoints are
+    // synchronous either way.
+    Handler getUsers = userController::getUsers;
+    Handler getUser = userController::getUser;
+    Handler addNewUser = userController::addNewUser;
+    Handler deleteUser = userController::deleteUser;
+    Handler getTodos = todoController::getTodos;
+    Handler getTodo = todoController::getTodo;
+    Handler addNewTodo = todoController::addNewTodo;
+    Handler deleteTodo = todoController::deleteTodo;
+    // The reactive client has a pool (and so a pool monitor) of its own.
+    // Its check-out waits can't be measured; see `PoolMonitor`.
+    boolean reactive = System.getenv().getOrDefault("MONGO_DRIVER", "sync").equals("reactive");
+    PoolMonitor reactivePoolMonitor = new PoolMonitor(false);
+    com.mongodb.reactivestreams.client.MongoClient reactiveClient = reactive
+      ? com.mongodb.reactivestreams.client.MongoClients.create(
+        clientSettings(mongoConfig, reactivePoolMonitor, commandListeners))
+      : null;
+    // Writing a list response can block on a slow client, so it's done on
+    // threads of its own rather than the driver's.
+    ExecutorService responseWriters = reactive ? Executors.newCachedThreadPool() : null;
+    if (reactive) {
+      AsyncUserController asyncUserController
+        = new AsyncUserController(reactiveClient.getDatabase(databaseName), userController, responseWriters);
+      AsyncTodoController asyncTodoController
+        = new AsyncTodoController(reactiveClient.getDatabase(databaseName), todoController, responseWriters);
+      getUsers = asyncUserController::getUsers;
+      getUser = asyncUserController::getUser;
+      addNewUser = asyncUserController::addNewUser;
+      deleteUser = asyncUserController::deleteUser;
+      getTodos = asyncTodoController::getTodos;
+      getTodo = asyncTodoController::getTodo;
+      addNewTodo = asyncTodoController::addNewTodo;
+      deleteTodo = asyncTodoController::deleteTodo;
+    }
+
+    // Batch up concurrent single inserts if INSERT_BATCH_SIZE is set (to
+    // more than 1); each batch waits at most INSERT_BATCH_WAIT_MILLIS for
+    // more inserts to arrive.
+    int insertBatchSize = Integer.parseInt(System.getenv().getOrDefault("INSERT_BATCH_SIZE", "1"));
+    Duration insertBatchWait = Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault(
+        "INSERT_BATCH_WAIT_MILLIS", String.valueOf(DEFAULT_INSERT_BATCH_WAIT_MILLIS))));
+    Map<String, InsertCoalescer<?>> insertCoalescers = new LinkedHashMap<>();
+    if (insertBatchSize > 1) {
+      insertCoalescers.put("users", userController.coalesceInserts(insertBatchSize, insertBatchWait));
+      insertCoalescers.put("todos", todoController.coalesceInserts(insertBatchSize, insertBatchWait));
+    }
+
+    // Add the numbers behind the /api/stats endpoints to the metrics
+    metrics.registerStats("app.cache", Tags.of("cache", "users"), userCache::stats);
+    metrics.registerStats("app.cache", Tags.of("cache", "todos"), todoCache::stats);
+    metrics.registerStats("app.cache", Tags.of("cache", "todoSummaries"), todoController::summaryCacheStats);
+    metrics.registerStats("app.cache", Tags.of("cache", "avatars"), userController::avatarCacheStats);
+    metrics.registerStats("app.mongo.pool", Tags.of("client", "sync"), poolMonitor::stats);
+    if (reactive) {
+      metrics.registerStats("app.mongo.pool", Tags.of("client", "reactive"), reactivePoolMonitor::stats);
+    }
+    metrics.registerStats("app.mongo.slow.queries", Tags.empty(), slowQueryLog::stats);
+    insertCoalescers.forEach((name, coalescer) ->
+      metrics.registerStats("app.insert.batching", Tags.of("collection", name), coalescer::stats));
+
+    // JETTY_THREADS=virtual has Jetty run each request on its own virtual
+    // thread (Java 21+) instead of on one of its bounded pool of platform
+    // threads, which then only do Jetty's own (non-blocking) work.
+    boolean virtualThreads = System.getenv().getOrDefault("JETTY_THREADS", "platform").equals("virtual");
+    if (virtualThreads && !VirtualThreads.areSupported()) {
+      throw new IllegalStateException("JETTY_THREADS=virtual needs Java 21 or newer");
+    }
 
-    Javalin server = Javalin.create(config ->
-      config.plugins.register(new RouteOverviewPlugin("/api"))
-    );
+    // Gzip responses of at least COMPRESSION_MIN_BYTES for clients that
+    // accept it, at COMPRESSION_LEVEL (1-9); COMPRESSION=none turns it off.
+    boolean compress = !System.getenv().getOrDefault("COMPRESSION", "gzip").equals("none");
+    ResponseCompression compression = new ResponseCompression(
+      Integer.parseInt(System.getenv().getOrDefault(
+        "COMPRESSION_MIN_BYTES", String.valueOf(ResponseCompression.DEFAULT_MIN_SIZE))),
+      Integer.parseInt(System.getenv().getOrDefault(
+        "COMPRESSION_LEVEL", String.valueOf(ResponseCompression.DEFAULT_LEVEL))));
+    metrics.registerStats("app.compression", Tags.empty(), compression::stats);
+
+    // The port can be changed (e.g., to run more than one server at once
+    // for benchmarking) with the SERVER_PORT environment variable.
+    int port = Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", String.valueOf(SERVER_PORT)));
+
+    // HTTP2=h2c lets clients use HTTP/2 (without TLS) on the same port as
+    // HTTP/1.1, so many concurrent requests can share one connection.
+    boolean http2 = System.getenv().getOrDefault("HTTP2", "off").equals("h2c");
+
+    Javalin server = Javalin.create(config -> {
+      config.plugins.register(new RouteOverviewPlugin("/api"));
+      // Jetty does the compressing (see `ResponseCompression`), not Javalin
+      config.compression.none();
+      if (compress) {
+        config.jetty.contextHandlerConfig(handler -> handler.setGzipHandler(compression.handler()));
+      }
+      if (virtualThreads || http2) {
+        config.jetty.server(() -> {
+          QueuedThreadPool threadPool = new QueuedThreadPool();
+          threadPool.setUseVirtualThreads(virtualThreads);
+          org.eclipse.jetty.server.Server jetty = new org.eclipse.jetty.server.Server(threadPool);
+          if (http2) {
+            // Javalin only adds its own HTTP/1.1 connector if there isn't one
+            jetty.addConnector(CleartextHttp2.connector(jetty, port));
+          }
+          return jetty;
+        });
+      }
+    });
     /*
      * We want to shut the `mongoClient` down if the server either
      * fails to start, or when it's shutting down for whatever reason.
@@ -57,39 +203,129 @@ public class Server {
      */
     server.events(event -> {
       event.serverStartFailed(mongoClient::close);
-      event.serverStopped(mongoClient::close);
+      event.serverStopped(() -> {
+        // Let any queued inserts go through before the client goes away
+        insertCoalescers.values().forEach(InsertCoalescer::close);
+        mongoClient.close();
+        if (reactiveClient != null) {
+          reactiveClient.close();
+          responseWriters.shutdown();
+        }
+      });
     });
     Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
 
-    server.start(SERVER_PORT);
+    // Time every request by route, and serve those timings (along with
+    // the MongoDB and JVM metrics) at /metrics for Prometheus to scrape.
+    metrics.instrument(server);
+
+    // CONCURRENCY_LIMIT=adaptive sheds load (with a 503) on the todo and
+    // user routes once more of their requests are in progress than they
+    // can serve within CONCURRENCY_LATENCY_TARGET_MILLIS. Independently of
+    // that, setting RATE_LIMIT_PER_SECOND holds each client to that rate
+    // on those routes (with bursts of up to RATE_LIMIT_BURST requests),
+    // turning the rest away with a 429.
+    boolean adaptive = System.getenv().getOrDefault("CONCURRENCY_LIMIT", "off").equals("adaptive");
+    AdmissionControl admission = new AdmissionControl(
+      Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault(
+        "CONCURRENCY_LATENCY_TARGET_MILLIS", String.valueOf(AdmissionControl.DEFAULT_LATENCY_TARGET_MILLIS)))),
+      Integer.parseInt(System.getenv().getOrDefault(
+        "CONCURRENCY_MAX_LIMIT", String.valueOf(AdmissionControl.DEFAULT_MAX_LIMIT))))
+      .limitConcurrency(adaptive);
+    double ratePerSecond = Double.parseDouble(System.getenv().getOrDefault("RATE_LIMIT_PER_SECOND", "0"));
+    if (ratePerSecond > 0) {
+      admission.rateLimitClients(ratePerSecond, Integer.parseInt(System.getenv().getOrDefault(
+        "RATE_LIMIT_BURST", String.valueOf((int) Math.ceil(ratePerSecond)))));
+      metrics.registerStats("app.admission.clients", Tags.empty(),
+        () -> Map.of("rateLimited", admission.rateLimited()));
+    }
+    if (adaptive || ratePerSecond > 0) {
+      admission.protect(server, "/api/users", "/api/users/{id}", "/api/todos", "/api/todos/{id}");
+    }
+    admission.stats().keySet().forEach(route ->
+      metrics.registerStats("app.admission", Tags.of("route", route), () -> admission.stats(route)));
+
+    server.start(port);
+
+    // Report how well the single-item caches are doing
+    server.get("/api/stats/cache", ctx -> {
+      Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+      stats.put("users", userCache.stats());
+      stats.put("todos", todoCache.stats());
+      stats.put("todoSummaries", todoController.summaryCacheStats());
+      stats.put("avatars", userController.avatarCacheStats());
+      ctx.json(stats);
+    });
+
+    // Report how the MongoDB connection pool is doing (and the reactive
+    // client's, if it's in use)
+    server.get("/api/stats/pool", ctx -> ctx.json(poolMonitor.stats()));
+    if (reactive) {
+      server.get("/api/stats/pool/reactive", ctx -> ctx.json(reactivePoolMonitor.stats()));
+    }
+
+    // Report the most recent slow queries, with their plans
+    server.get("/api/stats/slow-queries", ctx -> ctx.json(slowQueryLog.recent()));
+
+    // Report the load-shedding limits for each route (empty if it's off)
+    server.get("/api/stats/admission", ctx -> ctx.json(admission.stats()));
+
+    // Report how much compressing responses saves, and what it costs
+    server.get("/api/stats/compression", ctx -> ctx.json(compression.stats()));
+
+    // Report how the insert batching is doing (empty if it's off)
+    server.get("/api/stats/inserts", ctx -> {
+      Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+      insertCoalescers.forEach((name, coalescer) -> stats.put(name, coalescer.stats()));
+      ctx.json(stats);
+    });
 
     // List users, filtered using query parameters
-    server.get("/api/users", userController::getUsers);
+    server.get("/api/users", getUsers);
 
     // Get the specified user
-    server.get("/api/users/{id}", userController::getUser);
+    server.get("/api/users/{id}", getUser);
 
     // Delete the specified user
-    server.delete("/api/users/{id}", userController::deleteUser);
+    server.delete("/api/users/{id}", deleteUser);
+
+    // Delete all the users that match the filters in the query parameters
+    server.delete("/api/users", userController::deleteUsers);
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
-    server.post("/api/users", userController::addNewUser);
+    server.post("/api/users", addNewUser);
+
+    // Add all the new users in the JSON array in the body of the
+    // HTTP request
+    server.post("/api/users/bulk", userController::addNewUsers);
 
     // comment out server.get code below this to get server to build
 
     // List todos, filtered using query parameters
-    server.get("/api/todos", todoController::getTodos);
+    server.get("/api/todos", getTodos);
+
+    // Count the todos matching the filters in the query parameters, by
+    // owner, category, and status. This has to come before the next
+    // route, or "summary" would be taken for a todo's ID.
+    server.get("/api/todos/summary", todoController::getTodoSummary);
 
      // Get the specified todo
-    server.get("/api/todos/{id}", todoController::getTodo);
+    server.get("/api/todos/{id}", getTodo);
 
     // Delete the specified todo
-    server.delete("/api/todos/{id}", todoController::deleteTodo);
+    server.delete("/api/todos/{id}", deleteTodo);
+
+    // Delete all the todos that match the filters in the query parameters
+    server.delete("/api/todos", todoController::deleteTodos);
 
     // Add new todo with the todo info being in the JSON body
     // of the HTTP request
-    server.post("/api/todos", todoController::addNewTodo);
+    server.post("/api/todos", addNewTodo);
+
+    // Add all the new todos in the JSON array in the body of the
+    // HTTP request
+    server.post("/api/todos/bulk", todoController::addNewTodos);
 
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
@@ -104,4 +340,13 @@ public class Server {
       throw new InternalServerErrorResponse(e.toString());
     });
   }
+
+  // The client settings from the configuration, with the pool watched by
+  // the given monitor and every command seen by the given listeners
+  private static MongoClientSettings clientSettings(
+      MongoConfig mongoConfig, PoolMonitor poolMonitor, List<CommandListener> commandListeners) {
+    MongoClientSettings.Builder builder = MongoClientSettings.builder(mongoConfig.clientSettings(poolMonitor));
+    commandListeners.forEach(builder::addCommandListener);
+    return builder.build();
+  }
 }
@@ -0,0 +1,260 @@
+package umm3601;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs `find` commands that take longer than a threshold, along with how
+ * MongoDB ran them.
+ * <p>
+ * This is a driver `CommandListener`, so it sees every `find` the server
+ * sends (from `getTodos`, `getUsers`, and the rest). When one is slow, its
+ * filter, sort, limit, and duration are handed to a background thread,
+ * which asks MongoDB to `explain` the same query and logs the winning
+ * plan's stages (e.g., `FETCH > IXSCAN(owner_1)` vs. `COLLSCAN`) and how
+ * many index keys and documents it examined compared to how many it
+ * returned. A `COLLSCAN`, or many more documents examined than returned,
+ * usually means an index is missing for that combination of parameters.
+ * <p>
+ * The explains run one at a time and at most `MAX_QUEUED_EXPLAINS` wait
+ * their turn; slow queries beyond that are logged without a plan, so a
+ * burst of slow queries doesn't turn into a burst of extra database work.
+ * The most recent slow queries are kept for `/api/stats/slow-queries`.
+ * <p>
+ * The driver only guarantees a command's document during the started
+ * callback, so the parts we'd need to explain a `find` are copied then,
+ * for every `find`. They're small (no documents, just the query).
+ */
+public final class SlowQueryLog implements CommandListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+
+  /** The default threshold, in milliseconds. */
+  public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+  static final int MAX_QUEUED_EXPLAINS = 100;
+  static final int MAX_RECENT = 50;
+
+  // The parts of a `find` command that affect its plan
+  private static final String[] QUERY_FIELDS = {
+    "filter", "sort", "projection", "limit", "skip", "hint", "collation",
+  };
+
+  private final long thresholdNanos;
+  private final Executor explainExecutor;
+  private final Map<Integer, StartedFind> inFlight = new ConcurrentHashMap<>();
+  private final Deque<Map<String, Object>> recent = new ArrayDeque<>();
+  private final AtomicLong slowQueries = new AtomicLong();
+  private final AtomicLong skippedExplains = new AtomicLong();
+
+  private volatile MongoClient explainClient;
+
+  /**
+   * Construct a log, which explains slow queries on a single background
+   * thread.
+   *
+   * @param thresholdMillis how long (in milliseconds) a `find` can take
+   *   before it's logged
+   */
+  public SlowQueryLog(long thresholdMillis) {
+    this(thresholdMillis, explainThread());
+  }
+
+  SlowQueryLog(long thresholdMillis, Executor explainExecutor) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.explainExecutor = explainExecutor;
+  }
+
+  private static ExecutorService explainThread() {
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(MAX_QUEUED_EXPLAINS),
+      runnable -> {
+        Thread thread = new Thread(runnable, "slow-query-explain");
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  /**
+   * Explain slow queries using the given client. The log has to be in
+   * the client's settings before the client exists, so the client is
+   * passed in afterwards; until it is, slow queries are logged without a
+   * plan.
+   *
+   * @param client the client to send `explain` commands with
+   */
+  public void explainWith(MongoClient client) {
+    this.explainClient = client;
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    if (!"find".equals(event.getCommandName())) {
+      return;
+    }
+    BsonDocument command = event.getCommand();
+    BsonDocument find = new BsonDocument("find", new BsonString(command.getString("find").getValue()));
+    for (String field : QUERY_FIELDS) {
+      if (command.containsKey(field)) {
+        find.put(field, command.get(field));
+      }
+    }
+    inFlight.put(event.getRequestId(), new StartedFind(event.getDatabaseName(), find.clone()));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    // The succeeded event only has the database name in newer drivers,
+    // so it's kept from when the command started.
+    StartedFind started = inFlight.remove(event.getRequestId());
+    if (started != null && event.getElapsedTime(TimeUnit.NANOSECONDS) >= thresholdNanos) {
+      slow(started.databaseName, started.find, event.getElapsedTime(TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    inFlight.remove(event.getRequestId());
+  }
+
+  private void slow(String databaseName, BsonDocument find, long millis) {
+    slowQueries.incrementAndGet();
+    Map<String, Object> query = new LinkedHashMap<>();
+    query.put("collection", find.getString("find").getValue());
+    query.put("millis", millis);
+    query.put("filter", find.containsKey("filter") ? find.getDocument("filter").toJson() : "{}");
+    if (find.containsKey("sort")) {
+      query.put("sort", find.getDocument("sort").toJson());
+    }
+    if (find.containsKey("limit")) {
+      query.put("limit", find.getNumber("limit").longValue());
+    }
+
+    MongoClient client = explainClient;
+    if (client == null) {
+      record(query);
+      return;
+    }
+    try {
+      explainExecutor.execute(() -> {
+        try {
+          Document explain = client.getDatabase(databaseName).runCommand(
+            new BsonDocument("explain", find).append("verbosity", new BsonString("executionStats")));
+          describePlan(explain, query);
+        } catch (RuntimeException e) {
+          query.put("explainError", e.getMessage());
+        }
+        record(query);
+      });
+    } catch (RejectedExecutionException e) {
+      skippedExplains.incrementAndGet();
+      record(query);
+    }
+  }
+
+  /**
+   * Add the winning plan and its execution stats from an `explain` to a
+   * slow query's description.
+   */
+  static void describePlan(Document explain, Map<String, Object> query) {
+    Document queryPlanner = explain.get("queryPlanner", Document.class);
+    if (queryPlanner != null) {
+      query.put("plan", stages(queryPlanner.get("winningPlan", Document.class)));
+    }
+    Document stats = explain.get("executionStats", Document.class);
+    if (stats != null) {
+      query.put("keysExamined", ((Number) stats.get("totalKeysExamined")).longValue());
+      query.put("docsExamined", ((Number) stats.get("totalDocsExamined")).longValue());
+      query.put("returned", ((Number) stats.get("nReturned")).longValue());
+    }
+  }
+
+  // Describe a plan from the top stage down, e.g., `LIMIT > FETCH > IXSCAN(owner_1)`.
+  private static String stages(Document stage) {
+    if (stage == null) {
+      return "";
+    }
+    String description = stage.getString("stage");
+    if (stage.containsKey("indexName")) {
+      description += "(" + stage.getString("indexName") + ")";
+    }
+    if (stage.containsKey("inputStage")) {
+      return description + " > " + stages(stage.get("inputStage", Document.class));
+    }
+    if (stage.containsKey("inputStages")) {
+      List<String> inputs = new ArrayList<>();
+      for (Document input : stage.getList("inputStages", Document.class)) {
+        inputs.add(stages(input));
+      }
+      return description + " > [" + String.join(", ", inputs) + "]";
+    }
+    return description;
+  }
+
+  private void record(Map<String, Object> query) {
+    LOGGER.warn("Slow query: {}", query);
+    synchronized (recent) {
+      if (recent.size() == MAX_RECENT) {
+        recent.removeFirst();
+      }
+      recent.addLast(query);
+    }
+  }
+
+  /**
+   * @return the most recent slow queries (oldest first), each with its
+   *   plan if it was explained
+   */
+  public List<Map<String, Object>> recent() {
+    synchronized (recent) {
+      return new ArrayList<>(recent);
+    }
+  }
+
+  /**
+   * @return how many slow queries there have been, and how many of them
+   *   weren't explained because too many explains were already waiting
+   */
+  public Map<String, Long> stats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("thresholdMillis", TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+    stats.put("slowQueries", slowQueries.get());
+    stats.put("skippedExplains", skippedExplains.get());
+    return stats;
+  }
+
+  // What `commandStarted` keeps of a `find` until it finishes
+  private static final class StartedFind {
+    private final String databaseName;
+    private final BsonDocument find;
+
+    StartedFind(String databaseName, BsonDocument find) {
+      this.databaseName = databaseName;
+      this.find = find;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package umm3601;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.mongodb.client.model.Projections;
+
+import org.bson.conversions.Bson;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * The set of fields a client asked for with the `fields` query parameter
+ * (e.g., `?fields=owner,status`).
+ * <p>
+ * The selection is used twice: as a MongoDB projection, so only those
+ * fields are sent over the wire and decoded, and as a Jackson property
+ * filter, so only those fields are written into the response. The `_id`
+ * is always included, so clients can still tell the items apart.
+ */
+public final class SparseFields {
+
+  /** The query parameter that holds the comma-separated field names. */
+  public static final String FIELDS_PARAMETER = "fields";
+
+  /** The id of the Jackson property filter that `StreamingResponse` applies. */
+  public static final String FILTER_ID = "sparseFields";
+
+  /** No selection; every field is included. */
+  public static final SparseFields ALL = new SparseFields(null);
+
+  private static final String ID_KEY = "_id";
+
+  // The properties of each model class, found the first time it's used
+  private static final Map<Class<?>, Set<String>> PROPERTIES = new ConcurrentHashMap<>();
+
+  private static final FilterProvider SERIALIZE_ALL = new SimpleFilterProvider()
+    .addFilter(FILTER_ID, SimpleBeanPropertyFilter.serializeAll());
+
+  // `null` means every field
+  private final Set<String> names;
+
+  private SparseFields(Set<String> names) {
+    this.names = names;
+  }
+
+  /**
+   * Read the field selection from the `fields` query parameter.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param type the model class the fields are chosen from (e.g., `Todo`)
+   * @return the selected fields, or `ALL` if the parameter is missing or empty
+   * @throws BadRequestResponse if a field isn't one of the model's
+   */
+  public static SparseFields from(Context ctx, Class<?> type) {
+    String fields = ctx.queryParam(FIELDS_PARAMETER);
+    if (fields == null) {
+      return ALL;
+    }
+    Set<String> names = Arrays.stream(fields.split(","))
+      .map(String::trim)
+      .filter(name -> !name.isEmpty())
+      .collect(Collectors.toCollection(LinkedHashSet::new));
+    if (names.isEmpty()) {
+      return ALL;
+    }
+    // The names go straight into the MongoDB projection, so anything that
+    // isn't a plain field of the model (`$foo`, `a..b`, `body.$`) has to be
+    // turned away here rather than make the query fail.
+    Set<String> known = PROPERTIES.computeIfAbsent(type, SparseFields::properties);
+    for (String name : names) {
+      if (!known.contains(name)) {
+        throw new BadRequestResponse("Unknown field in `" + FIELDS_PARAMETER + "`: " + name);
+      }
+    }
+    names.add(ID_KEY);
+    return new SparseFields(Collections.unmodifiableSet(names));
+  }
+
+  // The public instance fields of a model class, which are its properties
+  private static Set<String> properties(Class<?> type) {
+    return Arrays.stream(type.getFields())
+      .filter(field -> !Modifier.isStatic(field.getModifiers()))
+      .map(Field::getName)
+      .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /**
+   * @return whether every field is included
+   */
+  public boolean isAll() {
+    return names == null;
+  }
+
+  /**
+   * @return the MongoDB projection for the selected fields, or `null` if
+   *   every field is included
+   */
+  public Bson projection() {
+    return isAll() ? null : Projections.include(names.toArray(new String[0]));
+  }
+
+  /**
+   * @return the Jackson filters that only write out the selected fields
+   */
+  public FilterProvider filters() {
+    if (isAll()) {
+      return SERIALIZE_ALL;
+    }
+    return new SimpleFilterProvider()
+      .addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(names));
+  }
+}
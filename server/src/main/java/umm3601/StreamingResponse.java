@@ -0,0 +1,133 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.client.MongoCursor;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Writes list responses straight to the response output stream.
+ * <p>
+ * `ctx.json(list)` needs the whole list on the heap and then builds the
+ * whole JSON string as well, so a large response is held in memory twice.
+ * Here each item is handed to a Jackson generator as soon as it arrives
+ * (e.g., from a `MongoCursor`), so memory per request stays flat no matter
+ * how many results there are and the first bytes go out sooner.
+ * <p>
+ * Since the body is written as we go, the response status and headers have
+ * to be set *before* calling `writeArray`.
+ * <p>
+ * Responses can be limited to the fields the client asked for (see
+ * `SparseFields`); every class is given the sparse-fields property filter,
+ * which writes all the fields unless told otherwise.
+ * <p>
+ * Items are written as JSON unless the request's `Accept` header asks for
+ * one of the binary formats in `WireFormat`. (MessagePack has to know how
+ * long an array is before writing it, so its generator holds on to a list
+ * response until the end; the other formats stream as JSON does.)
+ */
+public final class StreamingResponse {
+
+  // Flushing after every item would push each one out as its own tiny
+  // chunk; we let the servlet container's output buffer decide instead.
+  private static final Map<WireFormat, ObjectWriter> WRITERS = new EnumMap<>(WireFormat.class);
+
+  static {
+    for (WireFormat format : WireFormat.values()) {
+      WRITERS.put(format, format.newMapper()
+        .addMixIn(Object.class, SparseFieldsMixIn.class)
+        .writer()
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+    }
+  }
+
+  private StreamingResponse() {
+  }
+
+  /**
+   * Write the given items to the response as a JSON array, one at a time.
+   * If the items come from MongoDB (i.e., the iterator is a `MongoCursor`,
+   * or one from `Publishers.iterate`) the iterator is closed once we're
+   * done with it, even if writing fails.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param items the items to write
+   */
+  public static void writeArray(Context ctx, Iterable<?> items) {
+    writeArray(ctx, items, SparseFields.ALL);
+  }
+
+  /**
+   * Write the given items to the response as a JSON array, one at a time,
+   * including only the selected fields of each.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param items the items to write
+   * @param fields the fields of each item to include
+   */
+  public static void writeArray(Context ctx, Iterable<?> items, SparseFields fields) {
+    ObjectWriter writer = negotiate(ctx);
+    Iterator<?> iterator = items.iterator();
+    try (SequenceWriter sequence = writer.with(fields.filters()).writeValuesAsArray(ctx.outputStream())) {
+      while (iterator.hasNext()) {
+        sequence.write(iterator.next());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (iterator instanceof MongoCursor) {
+        ((MongoCursor<?>) iterator).close();
+      } else if (iterator instanceof AutoCloseable) {
+        closeQuietly((AutoCloseable) iterator);
+      }
+    }
+  }
+
+  /**
+   * Write a single item to the response as JSON, including only the
+   * selected fields.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param item the item to write
+   * @param fields the fields of the item to include
+   */
+  public static void writeValue(Context ctx, Object item, SparseFields fields) {
+    ObjectWriter writer = negotiate(ctx);
+    try {
+      writer.with(fields.filters()).writeValue(ctx.outputStream(), item);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      // Nothing more to be done with it
+    }
+  }
+
+  // Set the content type for the format the client asked for, and say
+  // that the response depends on `Accept` so caches keep them apart.
+  private static ObjectWriter negotiate(Context ctx) {
+    WireFormat format = WireFormat.forResponse(ctx);
+    ctx.contentType(format.mediaType());
+    ctx.header(Header.VARY, Header.ACCEPT);
+    return WRITERS.get(format);
+  }
+
+  @JsonFilter(SparseFields.FILTER_ID)
+  private static final class SparseFieldsMixIn {
+  }
+}
@@ -0,0 +1,88 @@
+package umm3601;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import io.javalin.validation.BodyValidator;
+
+/**
+ * One check a new item has to pass, with the message to give when it
+ * doesn't.
+ * <p>
+ * The controllers keep their rules in a list so the same rules can be
+ * applied to a single request body (through Javalin's `BodyValidator`) and
+ * to each item of a bulk request, where one bad item shouldn't reject the
+ * whole batch.
+ *
+ * @param <T> the type of the items being checked
+ */
+public final class ValidationRule<T> {
+
+  private final Predicate<T> check;
+  private final String message;
+
+  private ValidationRule(Predicate<T> check, String message) {
+    this.check = check;
+    this.message = message;
+  }
+
+  /**
+   * Make a rule.
+   *
+   * @param <T> the type of the items being checked
+   * @param check what a legal item satisfies
+   * @param message the error to report for an item that doesn't
+   * @return the rule
+   */
+  public static <T> ValidationRule<T> of(Predicate<T> check, String message) {
+    return new ValidationRule<>(check, message);
+  }
+
+  /**
+   * @param item the item to check
+   * @return whether the item passes this rule
+   */
+  public boolean isSatisfiedBy(T item) {
+    return check.test(item);
+  }
+
+  /**
+   * @return the error to report for an item that fails this rule
+   */
+  public String message() {
+    return message;
+  }
+
+  /**
+   * Add all the given rules to a Javalin body validator.
+   *
+   * @param <T> the type of the body
+   * @param validator the validator for the request body
+   * @param rules the rules the body has to pass
+   * @return the same validator, for chaining
+   */
+  public static <T> BodyValidator<T> applyTo(BodyValidator<T> validator, List<ValidationRule<T>> rules) {
+    for (ValidationRule<T> rule : rules) {
+      validator.check(rule::isSatisfiedBy, rule.message());
+    }
+    return validator;
+  }
+
+  /**
+   * Check an item against all the given rules.
+   *
+   * @param <T> the type of the item
+   * @param rules the rules the item has to pass
+   * @param item the item to check
+   * @return the message of the first rule the item fails, or `null` if it
+   *   passes them all
+   */
+  public static <T> String firstFailure(List<ValidationRule<T>> rules, T item) {
+    for (ValidationRule<T> rule : rules) {
+      if (!rule.isSatisfiedBy(item)) {
+        return rule.message();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,182 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * The formats the API can send and receive items in.
+ * <p>
+ * JSON is the default, and what browsers get. Other services can ask for
+ * one of the binary formats with the `Accept` header (and send one with
+ * `Content-Type`); those are smaller than JSON and much cheaper to parse,
+ * since numbers and strings don't need to be scanned character by
+ * character. They're all written and read by Jackson, so they use exactly
+ * the same `Todo` and `User` mappings as JSON does.
+ * <p>
+ * A request that doesn't say what it accepts, or only accepts formats we
+ * don't know, gets JSON, just as before.
+ */
+public enum WireFormat {
+  JSON(ContentType.JSON, JsonFactory::new),
+  SMILE("application/x-jackson-smile", SmileFactory::new),
+  CBOR("application/cbor", CBORFactory::new),
+  MESSAGE_PACK("application/x-msgpack", MessagePackFactory::new);
+
+  private final String mediaType;
+  private final Supplier<JsonFactory> factory;
+  private final ObjectMapper reader;
+
+  WireFormat(String mediaType, Supplier<JsonFactory> factory) {
+    this.mediaType = mediaType;
+    this.factory = factory;
+    this.reader = new ObjectMapper(factory.get());
+  }
+
+  /**
+   * @return the media type for this format, e.g., `application/cbor`
+   */
+  public String mediaType() {
+    return mediaType;
+  }
+
+  /**
+   * @return a new mapper for this format, to be configured for writing
+   */
+  public ObjectMapper newMapper() {
+    return new ObjectMapper(factory.get());
+  }
+
+  /**
+   * @return a mapper for reading request bodies in this format
+   */
+  public ObjectMapper reader() {
+    return reader;
+  }
+
+  /**
+   * Pick the format to respond in from the request's `Accept` header.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the format the client prefers, or JSON
+   */
+  public static WireFormat forResponse(Context ctx) {
+    return forAccept(ctx.header(Header.ACCEPT));
+  }
+
+  /**
+   * Pick the format from an `Accept` header: the one with the highest
+   * quality (`q`), or the first one listed if there's a tie. A wildcard
+   * range (such as `application/*`) means JSON.
+   *
+   * @param accept the value of the `Accept` header, or `null`
+   * @return the format the header prefers, or JSON
+   */
+  static WireFormat forAccept(String accept) {
+    if (accept == null) {
+      return JSON;
+    }
+    WireFormat best = JSON;
+    double bestQuality = 0;
+    for (String range : accept.split(",")) {
+      String[] parts = range.split(";");
+      WireFormat format = forMediaType(parts[0]);
+      if (format == null) {
+        if (!parts[0].trim().endsWith("*")) {
+          continue;
+        }
+        format = JSON;
+      }
+      double quality = quality(parts);
+      if (quality > bestQuality) {
+        best = format;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Pick the format of a request body from its `Content-Type`.
+   *
+   * @param contentType the value of the `Content-Type` header, or `null`
+   * @return the format of the body; JSON if it isn't one of the others
+   */
+  static WireFormat forContentType(String contentType) {
+    if (contentType == null) {
+      return JSON;
+    }
+    WireFormat format = forMediaType(contentType.split(";")[0]);
+    return format == null ? JSON : format;
+  }
+
+  private static WireFormat forMediaType(String mediaType) {
+    String type = mediaType.trim().toLowerCase(Locale.ROOT);
+    for (WireFormat format : values()) {
+      if (format.mediaType.equals(type)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Read a new item from the request body, in whichever format its
+   * `Content-Type` says, and check it against the given rules.
+   * <p>
+   * JSON bodies go through Javalin's body validator as always, so they
+   * fail the same way; the others fail with the first rule they break.
+   *
+   * @param <T> the type of the item
+   * @param ctx a Javalin HTTP context
+   * @param type the class of the item
+   * @param rules the rules the item has to pass
+   * @return the item, if it's legal
+   * @throws BadRequestResponse if the body can't be read or breaks a rule
+   */
+  public static <T> T readBody(Context ctx, Class<T> type, List<ValidationRule<T>> rules) {
+    WireFormat format = forContentType(ctx.contentType());
+    if (format == JSON) {
+      return ValidationRule.applyTo(ctx.bodyValidator(type), rules).get();
+    }
+
+    T item;
+    try {
+      item = format.reader.readValue(ctx.bodyInputStream(), type);
+    } catch (IOException e) {
+      throw new BadRequestResponse("The request body couldn't be read as " + format.mediaType + ".");
+    }
+    String failure = item == null ? "The request body must be an object." : ValidationRule.firstFailure(rules, item);
+    if (failure != null) {
+      throw new BadRequestResponse(failure);
+    }
+    return item;
+  }
+}
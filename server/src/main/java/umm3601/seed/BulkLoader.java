@@ -0,0 +1,161 @@
+package umm3601.seed;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inserts a (possibly huge) stream of documents into a collection as fast
+ * as MongoDB will take them.
+ * <p>
+ * The documents are cut into batches, and several batches are inserted at
+ * once, each with an unordered `insertMany` (so MongoDB doesn't have to
+ * stop at, or go in order past, a failing document). Only a couple of
+ * batches per thread are let out ahead of the inserts, so the documents
+ * can come from a generator or a file that's much bigger than memory.
+ * <p>
+ * Documents that MongoDB rejects (e.g., duplicate IDs) are counted and
+ * skipped; any other failure stops the load and is rethrown.
+ */
+public final class BulkLoader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BulkLoader.class);
+
+  private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private static final int BATCHES_PER_THREAD = 2;
+
+  private final int threads;
+  private final int batchSize;
+
+  /**
+   * Construct a loader.
+   *
+   * @param threads how many batches to insert at once
+   * @param batchSize how many documents to send in each `insertMany`
+   */
+  public BulkLoader(int threads, int batchSize) {
+    this.threads = threads;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Insert all the documents, logging progress as we go.
+   *
+   * @param collection the collection to add them to
+   * @param documents the documents to add
+   * @return how many were inserted (and rejected), and how long it took
+   * @throws InterruptedException if we're interrupted while waiting for
+   *   the inserts
+   */
+  public Result load(MongoCollection<Document> collection, Iterator<Document> documents)
+      throws InterruptedException {
+    String name = collection.getNamespace().getCollectionName();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Semaphore slots = new Semaphore(threads * BATCHES_PER_THREAD);
+    AtomicLong inserted = new AtomicLong();
+    AtomicLong rejected = new AtomicLong();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    InsertManyOptions unordered = new InsertManyOptions().ordered(false);
+
+    long start = System.nanoTime();
+    long nextProgress = start + PROGRESS_INTERVAL_NANOS;
+    try {
+      while (documents.hasNext() && failure.get() == null) {
+        List<Document> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && documents.hasNext()) {
+          batch.add(documents.next());
+        }
+        slots.acquire();
+        executor.execute(() -> {
+          try {
+            collection.insertMany(batch, unordered);
+            inserted.addAndGet(batch.size());
+          } catch (MongoBulkWriteException e) {
+            int failed = e.getWriteErrors().size();
+            inserted.addAndGet(batch.size() - failed);
+            rejected.addAndGet(failed);
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            slots.release();
+          }
+        });
+
+        long now = System.nanoTime();
+        if (now >= nextProgress) {
+          LOGGER.info("{}: {} documents so far ({} per second)",
+            name, inserted.get(), (long) perSecond(inserted.get(), now - start));
+          nextProgress = now + PROGRESS_INTERVAL_NANOS;
+        }
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    return new Result(inserted.get(), rejected.get(), System.nanoTime() - start);
+  }
+
+  private static double perSecond(long count, long nanos) {
+    return nanos == 0 ? 0 : count / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * How a load went.
+   */
+  public static final class Result {
+    private final long inserted;
+    private final long rejected;
+    private final long elapsedNanos;
+
+    Result(long inserted, long rejected, long elapsedNanos) {
+      this.inserted = inserted;
+      this.rejected = rejected;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return how many documents were inserted
+     */
+    public long inserted() {
+      return inserted;
+    }
+
+    /**
+     * @return how many documents MongoDB rejected
+     */
+    public long rejected() {
+      return rejected;
+    }
+
+    /**
+     * @return how long the load took, in seconds
+     */
+    public double seconds() {
+      return elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @return documents inserted per second
+     */
+    public double documentsPerSecond() {
+      return perSecond(inserted, elapsedNanos);
+    }
+  }
+}
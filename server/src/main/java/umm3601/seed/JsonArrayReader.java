@@ -0,0 +1,70 @@
+package umm3601.seed;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.bson.Document;
+
+/**
+ * Reads the documents in a file holding a JSON array of them (like the
+ * files in `database/seed`, which `mongoimport --jsonArray` takes) one at a
+ * time, so the file can be far bigger than memory.
+ * <p>
+ * Each document is read with Jackson's streaming parser and then handed
+ * to `Document.parse`, so MongoDB's extended JSON (e.g., `{"$oid": ...}`
+ * for an `ObjectId`) comes through as the right BSON types.
+ */
+public final class JsonArrayReader implements Iterator<Document>, Closeable {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final JsonParser parser;
+  private JsonToken next;
+
+  /**
+   * Open a file for reading.
+   *
+   * @param file the file, which has to hold a JSON array of objects
+   * @throws IOException if it can't be read, or doesn't start with an array
+   */
+  public JsonArrayReader(File file) throws IOException {
+    parser = MAPPER.getFactory().createParser(file);
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      parser.close();
+      throw new IOException(file + " doesn't hold a JSON array");
+    }
+    next = parser.nextToken();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return next == JsonToken.START_OBJECT;
+  }
+
+  @Override
+  public Document next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    try {
+      Document document = Document.parse(MAPPER.readTree(parser).toString());
+      next = parser.nextToken();
+      return document;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+}
@@ -0,0 +1,143 @@
+package umm3601.seed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+
+import umm3601.IndexRegistry;
+import umm3601.MongoConfig;
+import umm3601.todo.TodoController;
+import umm3601.user.UserController;
+
+/**
+ * Seeds the database, much faster than `mongoseed.sh` can for big data
+ * sets. It either loads the JSON files in a directory (like
+ * `database/seed`; each file's documents go in the collection named after
+ * it) or makes up as many todos and users as are asked for:
+ * <pre>
+ *   ./gradlew seed
+ *   ./gradlew seed --args="--todos=10000000 --users=1000000 --threads=8"
+ * </pre>
+ * The options are
+ * <ul>
+ *   <li>`--from=DIR`: load the `*.json` files in DIR</li>
+ *   <li>`--todos=N`, `--users=N`: make up N todos/users instead</li>
+ *   <li>`--seed=N`: the random seed for made-up data (default 3601)</li>
+ *   <li>`--threads=N`: how many batches to insert at once (default: one
+ *   per processor)</li>
+ *   <li>`--batch=N`: documents per `insertMany` (default 1000)</li>
+ *   <li>`--keep`: add to the collections instead of dropping them first</li>
+ * </ul>
+ * The database is the one the server uses (see `MongoConfig`). Each
+ * collection is dropped, loaded, and only then indexed (with the
+ * controllers' indexes), since building an index once is much cheaper than
+ * updating it on every insert. The documents per second for each
+ * collection are reported at the end.
+ */
+public final class Seeder {
+
+  private static final long DEFAULT_RANDOM_SEED = 3601;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int USAGE_ERROR = 2;
+
+  private Seeder() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = parseOptions(args);
+    if (!options.containsKey("from") && !options.containsKey("todos") && !options.containsKey("users")) {
+      System.err.println("Usage: Seeder --from=DIR | --todos=N --users=N"
+        + " [--seed=N] [--threads=N] [--batch=N] [--keep]");
+      System.exit(USAGE_ERROR);
+    }
+    int threads = Integer.parseInt(options.getOrDefault("threads",
+      String.valueOf(Runtime.getRuntime().availableProcessors())));
+    int batchSize = Integer.parseInt(options.getOrDefault("batch", String.valueOf(DEFAULT_BATCH_SIZE)));
+    boolean keep = options.containsKey("keep");
+    BulkLoader loader = new BulkLoader(threads, batchSize);
+
+    MongoConfig mongoConfig = MongoConfig.load();
+    // Every loading thread needs its own connection.
+    MongoClientSettings settings = MongoClientSettings.builder(mongoConfig.clientSettings())
+      .applyToConnectionPoolSettings(pool -> pool.maxSize(Math.max(pool.build().getMaxSize(), threads)))
+      .build();
+
+    try (MongoClient mongoClient = MongoClients.create(settings)) {
+      MongoDatabase database = mongoClient.getDatabase(mongoConfig.databaseName());
+      Map<String, BulkLoader.Result> results = new LinkedHashMap<>();
+
+      if (options.containsKey("from")) {
+        File[] files = new File(options.get("from")).listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+          throw new IOException("Can't list the files in " + options.get("from"));
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+          String collectionName = file.getName().substring(0, file.getName().length() - ".json".length());
+          try (JsonArrayReader documents = new JsonArrayReader(file)) {
+            results.put(collectionName, load(loader, database.getCollection(collectionName), documents, keep));
+          }
+        }
+      } else {
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", String.valueOf(DEFAULT_RANDOM_SEED))));
+        long todoCount = Long.parseLong(options.getOrDefault("todos", "0"));
+        long userCount = Long.parseLong(options.getOrDefault("users", "0"));
+        results.put("todos",
+          load(loader, database.getCollection("todos"), SyntheticData.todos(todoCount, random), keep));
+        results.put("users",
+          load(loader, database.getCollection("users"), SyntheticData.users(userCount, random), keep));
+      }
+
+      long indexStart = System.nanoTime();
+      new IndexRegistry()
+        .register("todos", TodoController.INDEXES)
+        .register("users", UserController.INDEXES)
+        .apply(database);
+      double indexSeconds = (System.nanoTime() - indexStart) / (double) TimeUnit.SECONDS.toNanos(1);
+
+      System.out.printf("%-12s %12s %10s %10s %12s%n", "collection", "documents", "rejected", "seconds", "docs/s");
+      results.forEach((collection, result) -> System.out.printf("%-12s %12d %10d %10.1f %12.0f%n",
+        collection, result.inserted(), result.rejected(), result.seconds(), result.documentsPerSecond()));
+      System.out.printf("Built the indexes in %.1f seconds%n", indexSeconds);
+    }
+  }
+
+  private static BulkLoader.Result load(BulkLoader loader, MongoCollection<Document> collection,
+      Iterator<Document> documents, boolean keep) throws InterruptedException {
+    if (!keep) {
+      collection.drop();
+    }
+    return loader.load(collection, documents);
+  }
+
+  // Options look like `--name=value`, or just `--name` for a flag.
+  static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Options look like --name=value, not " + arg);
+      }
+      int equals = arg.indexOf('=');
+      if (equals < 0) {
+        options.put(arg.substring(2), "");
+      } else {
+        options.put(arg.substring(2, equals), arg.substring(equals + 1));
+      }
+    }
+    return options;
+  }
+}
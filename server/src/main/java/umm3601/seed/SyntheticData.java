@@ -0,0 +1,145 @@
+package umm3601.seed;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Makes up todos and users that look like the ones in `database/seed`,
+ * as many as are wanted.
+ * <p>
+ * Values are drawn from small pools (of owners, categories, companies,
+ * and so on), so filters on them match a realistic share of the data. The
+ * documents come from the given random generator, so a fixed seed gives
+ * the same data every time.
+ */
+public final class SyntheticData {
+
+  /** The owners todos are given. */
+  public static final List<String> OWNERS = List.of(
+    "Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta", "Watson", "Patton", "Kristin", "Avis");
+  /** The categories todos are given. */
+  public static final List<String> CATEGORIES = List.of(
+    "homework", "software design", "video games", "groceries", "sports", "chores");
+  /** The words todo bodies are made of. */
+  public static final List<String> WORDS = List.of(
+    "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "tempor", "incididunt",
+    "labore", "magna", "aliqua", "enim", "minim", "veniam", "nostrud", "exercitation", "ullamco", "laboris");
+  /** The companies users work for. */
+  public static final List<String> COMPANIES = List.of(
+    "OHMNET", "IBM", "FRANSCENE", "CONFERIA", "INFOTRIPS", "GEOSTELE", "QUINEX", "ZAPPIX", "KOG", "ZENTIX");
+  /** The roles users have. */
+  public static final List<String> ROLES = List.of("admin", "editor", "viewer");
+
+  private static final List<String> FIRST_NAMES = List.of(
+    "Connie", "Lynn", "Roseann", "Leta", "Sara", "Valerie", "Mullins", "Pat", "Kerri", "Dorothy");
+  private static final List<String> LAST_NAMES = List.of(
+    "Stewart", "Vang", "Cummings", "Jensen", "Wise", "Hale", "Moss", "Long", "Ortega", "Burke");
+
+  private static final int MIN_BODY_WORDS = 5;
+  private static final int MAX_BODY_WORDS = 30;
+  private static final int MIN_AGE = 18;
+  private static final int MAX_AGE = 80;
+
+  private SyntheticData() {
+  }
+
+  /**
+   * Make up a todo (without an ID).
+   *
+   * @param random where to get the random choices from
+   * @return the todo
+   */
+  public static Document todo(Random random) {
+    return new Document()
+      .append("owner", pick(random, OWNERS))
+      .append("status", random.nextBoolean())
+      .append("body", body(random))
+      .append("category", pick(random, CATEGORIES));
+  }
+
+  /**
+   * Make up a user (without an ID).
+   *
+   * @param random where to get the random choices from
+   * @return the user
+   */
+  public static Document user(Random random) {
+    String first = pick(random, FIRST_NAMES);
+    String last = pick(random, LAST_NAMES);
+    String company = pick(random, COMPANIES);
+    return new Document()
+      .append("name", first + " " + last)
+      .append("age", MIN_AGE + random.nextInt(MAX_AGE - MIN_AGE))
+      .append("company", company)
+      .append("email", (first + last + "@" + company + ".com").toLowerCase(Locale.ROOT))
+      .append("role", pick(random, ROLES))
+      .append("avatar", "https://gravatar.com/avatar/?d=identicon");
+  }
+
+  /**
+   * Make up a number of todos, one at a time as they're asked for, each
+   * with a new ID.
+   *
+   * @param count how many to make
+   * @param random where to get the random choices from
+   * @return the todos
+   */
+  public static Iterator<Document> todos(long count, Random random) {
+    return generate(count, random, SyntheticData::todo);
+  }
+
+  /**
+   * Make up a number of users, one at a time as they're asked for, each
+   * with a new ID.
+   *
+   * @param count how many to make
+   * @param random where to get the random choices from
+   * @return the users
+   */
+  public static Iterator<Document> users(long count, Random random) {
+    return generate(count, random, SyntheticData::user);
+  }
+
+  private static Iterator<Document> generate(long count, Random random, Function<Random, Document> make) {
+    return new Iterator<>() {
+      private long made;
+
+      @Override
+      public boolean hasNext() {
+        return made < count;
+      }
+
+      @Override
+      public Document next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        made++;
+        return make.apply(random).append("_id", new ObjectId());
+      }
+    };
+  }
+
+  private static String body(Random random) {
+    int words = MIN_BODY_WORDS + random.nextInt(MAX_BODY_WORDS - MIN_BODY_WORDS);
+    StringBuilder body = new StringBuilder();
+    for (int w = 0; w < words; w++) {
+      if (w > 0) {
+        body.append(' ');
+      }
+      body.append(pick(random, WORDS));
+    }
+    return body.toString();
+  }
+
+  private static String pick(Random random, List<String> values) {
+    return values.get(random.nextInt(values.size()));
+  }
+}
@@ -0,0 +1,249 @@
+package umm3601.todo;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import umm3601.CaseInsensitive;
+import umm3601.CollectionVersion;
+import umm3601.InsertCoalescer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PojoDocuments;
+import umm3601.Publishers;
+import umm3601.SparseFields;
+import umm3601.StreamingResponse;
+import umm3601.WireFormat;
+
+/**
+ * An alternative to `TodoController` for the four core todo handlers,
+ * built on the reactive-streams MongoDB driver.
+ * <p>
+ * Each handler checks the request and builds its query right away, then
+ * hands Javalin a `CompletableFuture` (through `ctx.future`) and returns.
+ * The request thread goes back to Jetty while MongoDB works. Lists are
+ * written on the given executor rather than the driver's callback thread,
+ * since writing to a slow client blocks: a page once it's all in, and an
+ * unpaged list a batch at a time as it comes in (see `Publishers.iterate`).
+ * <p>
+ * The handlers take the same parameters and give the same responses as
+ * their `TodoController` counterparts. The difference is that single
+ * todos are always read from the database, not from the cache: a cache
+ * miss would block on the database. Deletes still invalidate the cache,
+ * so it never hands out a todo that's gone.
+ */
+public class AsyncTodoController {
+
+  private final MongoCollection<Document> todoDocuments;
+  private final CollectionVersion todoVersion;
+  private final LruCache<String, Todo> todoCache;
+  private final TodoController todoController;
+  private final Executor responseWriter;
+
+  /**
+   * Construct an asynchronous controller for todos.
+   *
+   * @param database the database containing todo data, from the
+   *   reactive-streams driver
+   * @param todoController the synchronous controller that handles the other
+   *   todo endpoints; the two share the collection version (so the ETags
+   *   of either change when either changes the collection), the cache
+   *   (which deletes here keep up to date), and insert batching
+   * @param responseWriter where list responses are written
+   */
+  public AsyncTodoController(MongoDatabase database, TodoController todoController, Executor responseWriter) {
+    this.todoDocuments = database.getCollection("todos");
+    this.todoVersion = todoController.version();
+    this.todoCache = todoController.cache();
+    this.todoController = todoController;
+    this.responseWriter = responseWriter;
+  }
+
+  /**
+   * Set the JSON body of the response to be the single todo
+   * specified by the `id` parameter in the request
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    SparseFields fields = SparseFields.from(ctx, Todo.class);
+
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
+    }
+    if (todoVersion.isNotModified(ctx, id)) {
+      return;
+    }
+
+    FindPublisher<Document> found = todoDocuments.find(eq("_id", new ObjectId(id)));
+    if (!fields.isAll()) {
+      found = found.projection(fields.projection());
+    }
+    FindPublisher<Document> query = found;
+    ctx.future(() -> Publishers.first(query).thenAccept(document -> {
+      if (document == null) {
+        throw new NotFoundResponse("The requested todo was not found");
+      }
+      todoVersion.tag(ctx);
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeValue(ctx, PojoDocuments.toPojo(document, Todo.class), fields);
+    }));
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the todos returned from the database
+   * that match any requested filters and ordering
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodos(Context ctx) {
+    Bson combinedFilter = TodoController.constructFilter(ctx);
+    String sortBy = TodoController.constructSortField(ctx);
+    boolean descending = TodoController.constructSortDescending(ctx);
+    Integer limit = TodoController.constructLimit(ctx);
+    SparseFields fields = SparseFields.from(ctx, Todo.class);
+
+    boolean byRelevance = sortBy.equals(TodoController.RELEVANCE_SORT);
+    boolean searching = ctx.queryParamMap().containsKey(TodoController.SEARCH_PARAMETER);
+    if (byRelevance && !searching) {
+      throw new BadRequestResponse("Todos can only be sorted by relevance when searching.");
+    }
+    if (ctx.queryParamMap().containsKey(TodoController.AFTER_KEY)) {
+      if (byRelevance) {
+        throw new BadRequestResponse("Todos sorted by relevance can't be paged with a cursor.");
+      }
+      combinedFilter = and(
+        combinedFilter,
+        KeysetCursor.after(ctx.queryParam(TodoController.AFTER_KEY), sortBy, descending));
+    }
+
+    if (todoVersion.isNotModified(ctx)) {
+      return;
+    }
+
+    FindPublisher<Document> results = todoDocuments.find(combinedFilter);
+    Bson projection = fields.projection();
+    if (byRelevance) {
+      Bson score = Projections.metaTextScore(TodoController.SCORE_KEY);
+      projection = projection == null ? score : Projections.fields(projection, score);
+      results = results.sort(Sorts.orderBy(Sorts.metaTextScore(TodoController.SCORE_KEY), Sorts.ascending("_id")));
+    } else {
+      results = results.sort(KeysetCursor.sort(sortBy, descending));
+      // The next-page cursor is built from the raw documents, so they
+      // need the sort key even if the client didn't ask for it.
+      if (projection != null && limit != null) {
+        projection = Projections.fields(projection, include(sortBy));
+      }
+    }
+    if (projection != null) {
+      results = results.projection(projection);
+    }
+    if (!searching) {
+      results = results.collation(CaseInsensitive.COLLATION);
+    }
+
+    // Without a limit there could be any number of todos, so they're
+    // written a batch at a time as they come in.
+    FindPublisher<Document> query = results;
+    if (limit == null) {
+      ctx.future(() -> CompletableFuture.runAsync(() -> {
+        todoVersion.tag(ctx);
+        ctx.status(HttpStatus.OK);
+        StreamingResponse.writeArray(ctx, Publishers.iterate(query, TodoController::toTodo), fields);
+      }, responseWriter));
+      return;
+    }
+
+    // Ask for one extra todo so we can tell whether there is another page.
+    // The cursor header has to go out before the body, so the (bounded)
+    // page is collected first.
+    ctx.future(() -> Publishers.toList(query.limit(limit + 1)).thenAcceptAsync(page -> {
+      if (page.size() > limit) {
+        page.remove(limit.intValue());
+        if (!byRelevance) {
+          ctx.header(KeysetCursor.NEXT_CURSOR_HEADER, KeysetCursor.encode(page.get(limit - 1), sortBy));
+        }
+      }
+      todoVersion.tag(ctx);
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeArray(ctx, todos(page), fields);
+    }, responseWriter));
+  }
+
+  // The todos in a page of documents, turned into todos as they're written
+  private static Iterable<Todo> todos(List<Document> page) {
+    return () -> page.stream().map(TodoController::toTodo).iterator();
+  }
+
+  /**
+   * Add a new todo using information from the context
+   * (as long as the information gives "legal" values to Todo fields)
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewTodo(Context ctx) {
+    Todo newTodo = WireFormat.readBody(ctx, Todo.class, TodoController.VALIDATION_RULES);
+
+    // Batch the insert up with others if the synchronous handler would
+    InsertCoalescer<Todo> coalescer = todoController.insertCoalescer();
+    if (coalescer != null) {
+      ctx.future(() -> coalescer.submit(newTodo).thenAccept(inserted -> created(ctx, inserted._id)));
+      return;
+    }
+
+    Document document = PojoDocuments.toDocument(newTodo);
+    ctx.future(() -> Publishers.first(todoDocuments.insertOne(document)).thenAccept(result ->
+      created(ctx, result.getInsertedId().asObjectId().getValue().toHexString())));
+  }
+
+  private void created(Context ctx, String id) {
+    todoVersion.bump();
+    ctx.json(Map.of("id", id));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Delete the todo specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The todo id to delete wasn't a legal Mongo Object ID.");
+    }
+
+    ctx.future(() -> Publishers.first(todoDocuments.deleteOne(eq("_id", new ObjectId(id)))).thenAccept(result -> {
+      if (result.getDeletedCount() > 0) {
+        todoVersion.bump();
+      }
+      todoCache.invalidate(id);
+      if (result.getDeletedCount() != 1) {
+        ctx.status(HttpStatus.NOT_FOUND);
+        throw new NotFoundResponse(
+          "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+      }
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+}
@@ -3,7 +3,6 @@ package umm3601.todo;
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
-
 @SuppressWarnings({"VisibilityModifier"})
 public class Todo {
   @SuppressWarnings({ "MemberName" })
@@ -3,20 +3,37 @@ package umm3601.todo;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Filters.text;
+import static com.mongodb.client.model.Projections.include;
 
 // import java.nio.charset.StandardCharsets;
 // import java.security.MessageDigest;
 // import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
 
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.result.DeleteResult;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
@@ -27,34 +44,162 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BulkDelete;
+import umm3601.BulkInsert;
+import umm3601.CaseInsensitive;
+import umm3601.CollectionVersion;
+import umm3601.InsertCoalescer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PojoDocuments;
+import umm3601.SparseFields;
+import umm3601.StreamingResponse;
+import umm3601.ValidationRule;
+import umm3601.WireFormat;
 
 /**
  * Controller that manages requests for info about todos.
  */
 public class TodoController {
 
+  static final String OWNER_KEY = "owner";
+  static final String OWNER_PREFIX_PARAMETER = "ownerprefix";
   static final String CATEGORY_KEY = "category";
+  static final String CATEGORY_PREFIX_PARAMETER = "categoryprefix";
   static final String STATUS_KEY = "status";
   static final String BODY_KEY = "body";
   static final String CONTAINS_PARAMETER = "contains";
+  static final String SEARCH_PARAMETER = "search";
+  static final String RELEVANCE_SORT = "relevance";
   static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+
+  /**
+   * The indexes that serve the queries `getTodos` builds. Every sort has
+   * `_id` as a tie-breaker (for keyset pagination), so the indexes end with
+   * it too; that lets MongoDB walk the index in order instead of sorting
+   * the results in memory. They use the case-insensitive collation, since
+   * that's what the list queries (other than text searches) run with.
+   */
+  public static final List<IndexModel> INDEXES = List.of(
+    // The default sort (by owner), filtering by owner, and sorting or
+    // filtering by category
+    CaseInsensitive.index(OWNER_KEY, "_id"),
+    CaseInsensitive.index(CATEGORY_KEY, "_id"),
+    // Filtering by status, with the default sort
+    CaseInsensitive.index(STATUS_KEY, OWNER_KEY, "_id"),
+    // Word searches on the body (`?search=`)
+    new IndexModel(Indexes.text(BODY_KEY))
+  );
+
+  /**
+   * The rules a new todo has to pass, whether it's added on its own or as
+   * part of a bulk request. A legal todo has:
+   *    - A non-blank owner
+   *    - A non-blank body
+   *    - A non-blank category
+   */
+  static final List<ValidationRule<Todo>> VALIDATION_RULES = List.of(
+    ValidationRule.of(todo -> todo.owner != null && todo.owner.length() > 0, "Todo must have a non-empty todo name"),
+    ValidationRule.of(todo -> todo.body != null && todo.body.length() > 0, "Todo must have a non-empty body name"),
+    ValidationRule.of(todo -> todo.category != null && todo.category.length() > 0,
+      "Todo must have a non-empty category name")
+  );
+
+  static final String SCORE_KEY = "score";
 
   // private static final String STATUS_REGEX = "^(complete|incomplete)$";
 
 
+  // How many todos `getTodo` keeps cached by default, and for how long
+  public static final int DEFAULT_CACHE_SIZE = 10_000;
+  public static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(1);
+
+  // The fields `getTodoSummary` counts todos by
+  static final List<String> SUMMARY_FIELDS = List.of(OWNER_KEY, CATEGORY_KEY, STATUS_KEY);
+  static final String COUNT_KEY = "count";
+  static final String TOTAL_KEY = "total";
+  // Summaries are cached only briefly, since changes made by anything
+  // other than this server (which bumps the version) aren't noticed.
+  static final int SUMMARY_CACHE_SIZE = 100;
+  static final Duration SUMMARY_CACHE_TTL = Duration.ofSeconds(10);
+
   private final JacksonMongoCollection<Todo> todoCollection;
+  private final MongoCollection<Document> todoDocuments;
+
+  // Bumped whenever a todo is added or deleted, and used to build ETags
+  private final CollectionVersion todoVersion = new CollectionVersion();
+
+  // Read-through cache of single todos, keyed by ID
+  private final LruCache<String, Todo> todoCache;
+
+  // Recent summaries, keyed by collection version and filter
+  private final LruCache<String, Map<String, Object>> summaryCache
+    = new LruCache<>(SUMMARY_CACHE_SIZE, SUMMARY_CACHE_TTL);
+
+  // Batches up single inserts when it's turned on (see `coalesceInserts`)
+  private InsertCoalescer<Todo> insertCoalescer;
 
   /**
-   * Construct a controller for todos.
+   * Construct a controller for todos, with a default-sized cache.
    *
    * @param database the database containing todo data
    */
   public TodoController(MongoDatabase database) {
+    this(database, new LruCache<>(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL));
+  }
+
+  /**
+   * Construct a controller for todos.
+   *
+   * @param database the database containing todo data
+   * @param todoCache the cache to keep single todos (looked up by ID) in
+   */
+  public TodoController(MongoDatabase database, LruCache<String, Todo> todoCache) {
     todoCollection = JacksonMongoCollection.builder().build(
         database,
         "todos",
         Todo.class,
         UuidRepresentation.STANDARD);
+    todoDocuments = database.getCollection("todos");
+    this.todoCache = todoCache;
+  }
+
+  /**
+   * Have `addNewTodo` insert todos in batches with any others that
+   * arrive at about the same time, rather than one at a time.
+   *
+   * @param maxBatchSize the most todos to insert at once
+   * @param maxWait how long to wait for more todos to batch up with
+   * @return the coalescer, so it can be monitored and closed
+   */
+  public InsertCoalescer<Todo> coalesceInserts(int maxBatchSize, Duration maxWait) {
+    insertCoalescer = new InsertCoalescer<>("todos", todoCollection, maxBatchSize, maxWait);
+    return insertCoalescer;
+  }
+
+  /**
+   * @return the version of the todos collection that ETags are built from,
+   *   for other handlers that change the collection to bump
+   */
+  CollectionVersion version() {
+    return todoVersion;
+  }
+
+  /**
+   * @return the cache of single todos, for other handlers that delete
+   *   todos to keep up to date
+   */
+  LruCache<String, Todo> cache() {
+    return todoCache;
+  }
+
+  /**
+   * @return the coalescer single inserts are batched up with, or `null`
+   *   if they aren't (see `coalesceInserts`)
+   */
+  InsertCoalescer<Todo> insertCoalescer() {
+    return insertCoalescer;
   }
 
   /**
@@ -65,18 +210,33 @@ public class TodoController {
    */
   public void getTodo(Context ctx) {
     String id = ctx.pathParam("id");
-    Todo todo;
-
-    try {
-      todo = todoCollection.find(eq("_id", new ObjectId(id))).first();
-    } catch (IllegalArgumentException e) {
+    SparseFields fields = SparseFields.from(ctx, Todo.class);
+    if (!ObjectId.isValid(id)) {
       throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
     }
+
+    // If the client already has the current version, there's no need
+    // to go to the database at all.
+    if (todoVersion.isNotModified(ctx, id)) {
+      return;
+    }
+
+    // Hot todos are served from the cache. The cache always holds the
+    // whole todo; if the client only wants some fields, the others are
+    // left out when it's written.
+    Todo todo = todoCache.get(id, key -> todoCollection.find(eq("_id", new ObjectId(key))).first());
     if (todo == null) {
       throw new NotFoundResponse("The requested todo was not found");
-    } else {
+    }
+    todoVersion.tag(ctx);
+    if (fields.isAll() && WireFormat.forResponse(ctx) == WireFormat.JSON) {
       ctx.json(todo);
       ctx.status(HttpStatus.OK);
+    } else {
+      // Only write out the fields the client asked for, in the format
+      // it asked for
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeValue(ctx, todo, fields);
     }
   }
 
@@ -88,34 +248,216 @@ public class TodoController {
    */
   public void getTodos(Context ctx) {
     Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
-
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the todos with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<Todo> matchingTodos = todoCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
-    // Set the JSON body of the response to be the list of todos returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingTodos);
-
-    // Explicitly set the context status to OK
+    String sortBy = constructSortField(ctx);
+    boolean descending = constructSortDescending(ctx);
+    Integer limit = constructLimit(ctx);
+    SparseFields fields = SparseFields.from(ctx, Todo.class);
+
+    // Ordering by relevance only makes sense for a text search, and the
+    // text score can't be used as a keyset, so those results can be
+    // limited but not paged through with a cursor.
+    boolean byRelevance = sortBy.equals(RELEVANCE_SORT);
+    if (byRelevance && !ctx.queryParamMap().containsKey(SEARCH_PARAMETER)) {
+      throw new BadRequestResponse("Todos can only be sorted by relevance when searching.");
+    }
+
+    // If the client is asking for a later page, only look at the todos
+    // that come after the cursor it was handed for the previous page.
+    if (ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      if (byRelevance) {
+        throw new BadRequestResponse("Todos sorted by relevance can't be paged with a cursor.");
+      }
+      combinedFilter = and(combinedFilter, KeysetCursor.after(ctx.queryParam(AFTER_KEY), sortBy, descending));
+    }
+
+    // If the client already has the current version of these results,
+    // there's no need to go to the database at all.
+    if (todoVersion.isNotModified(ctx)) {
+      return;
+    }
+
+    // Both the find and sort steps happen "in parallel" inside the database
+    // system. So MongoDB is going to find the todos with the specified
+    // properties and return those sorted in the specified manner.
+    Bson projection = fields.projection();
+    Bson sort;
+    if (byRelevance) {
+      // Older versions of MongoDB insist that the score is projected
+      // if we want to sort on it.
+      Bson score = Projections.metaTextScore(SCORE_KEY);
+      projection = projection == null ? score : Projections.fields(projection, score);
+      sort = Sorts.orderBy(Sorts.metaTextScore(SCORE_KEY), Sorts.ascending("_id"));
+    } else {
+      sort = KeysetCursor.sort(sortBy, descending);
+    }
+    boolean searching = ctx.queryParamMap().containsKey(SEARCH_PARAMETER);
+
+    // Set the status up front, since the body is written as the results
+    // come back from the database and the status can't change after that.
+    todoVersion.tag(ctx);
     ctx.status(HttpStatus.OK);
+
+    if (limit != null) {
+      // The page is read as plain documents, so the next-page cursor can be
+      // built from the last one without going back to the database. That
+      // needs the sort key, even if the client didn't ask for it (it isn't
+      // written out, since it's not one of the requested fields).
+      if (projection != null && !byRelevance) {
+        projection = Projections.fields(projection, include(sortBy));
+      }
+      // Ask for one extra todo so we can tell whether there is another page.
+      // A page is bounded in size, so it's fine to hold it in memory while we
+      // work out the cursor header, which has to go out before the body.
+      ArrayList<Document> page = query(todoDocuments.find(combinedFilter), sort, projection, searching)
+        .limit(limit + 1)
+        .into(new ArrayList<>());
+      if (page.size() > limit) {
+        page.remove(limit.intValue());
+        if (!byRelevance) {
+          ctx.header(KeysetCursor.NEXT_CURSOR_HEADER, KeysetCursor.encode(page.get(limit - 1), sortBy));
+        }
+      }
+      List<Todo> todos = new ArrayList<>(page.size());
+      page.forEach(document -> todos.add(toTodo(document)));
+      StreamingResponse.writeArray(ctx, todos, fields);
+    } else if (byRelevance) {
+      // Read as documents, so the text score can be stripped off before
+      // they're turned into todos
+      MongoIterable<Todo> results = query(todoDocuments.find(combinedFilter), sort, projection, searching)
+        .map(TodoController::toTodo);
+      StreamingResponse.writeArray(ctx, results, fields);
+    } else {
+      // Write each todo to the response as it comes off the database cursor,
+      // rather than collecting them all in a list first.
+      FindIterable<Todo> results = query(todoCollection.find(combinedFilter), sort, projection, searching);
+      StreamingResponse.writeArray(ctx, results, fields);
+    }
   }
 
-  private Bson constructFilter(Context ctx) {
+  // Turn a document from a `getTodos` query into a todo. The text `score`
+  // of a relevance-sorted search isn't part of a todo, so it's dropped.
+  static Todo toTodo(Document document) {
+    document.remove(SCORE_KEY);
+    return PojoDocuments.toPojo(document, Todo.class);
+  }
+
+  // Finish off a `getTodos` query, whether it's read as todos or documents.
+  private static <T> FindIterable<T> query(FindIterable<T> results, Bson sort, Bson projection, boolean searching) {
+    FindIterable<T> configured = results.sort(sort);
+    // Only fetch the fields the client asked for
+    if (projection != null) {
+      configured = configured.projection(projection);
+    }
+    // Text searches use the text index, which only supports the default
+    // (simple) collation; everything else compares strings ignoring case.
+    if (!searching) {
+      configured = configured.collation(CaseInsensitive.COLLATION);
+    }
+    return configured;
+  }
+
+  /**
+   * Set the JSON body of the response to be the number of todos (that
+   * match the same filters `getTodos` takes) in total and for each owner,
+   * category, and status, e.g.,
+   * <pre>
+   *   {"total": 300, "owner": {"Fry": 61, ...}, "category": {...}, "status": {"true": 143, "false": 157}}
+   * </pre>
+   * Each set of counts is ordered from the largest down. The counting is
+   * done by MongoDB, in one aggregation, so the client doesn't have to
+   * download every todo to show these; the results are also cached for a
+   * few seconds.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoSummary(Context ctx) {
+    Bson combinedFilter = constructFilter(ctx);
+    boolean searching = ctx.queryParamMap().containsKey(SEARCH_PARAMETER);
+
+    if (todoVersion.isNotModified(ctx)) {
+      return;
+    }
+
+    String key = todoVersion.current() + ":" + combinedFilter
+      .toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry())
+      .toJson();
+    ctx.json(summaryCache.get(key, k -> summarize(combinedFilter, searching)));
+    todoVersion.tag(ctx);
+    ctx.status(HttpStatus.OK);
+  }
+
+  private Map<String, Object> summarize(Bson filter, boolean searching) {
+    // One facet counting by each field, plus one for the total
+    List<Facet> facets = new ArrayList<>();
+    for (String field : SUMMARY_FIELDS) {
+      facets.add(new Facet(field,
+        Aggregates.group("$" + field, Accumulators.sum(COUNT_KEY, 1)),
+        Aggregates.sort(Sorts.orderBy(Sorts.descending(COUNT_KEY), Sorts.ascending("_id")))));
+    }
+    facets.add(new Facet(TOTAL_KEY, Aggregates.count(COUNT_KEY)));
+
+    AggregateIterable<Document> aggregation = todoDocuments.aggregate(List.of(
+      Aggregates.match(filter),
+      Aggregates.facet(facets)));
+    // As with `getTodos`: text searches need the simple collation, and
+    // everything else compares (and so groups) strings ignoring case.
+    if (!searching) {
+      aggregation = aggregation.collation(CaseInsensitive.COLLATION);
+    }
+    Document result = aggregation.first();
+
+    Map<String, Object> summary = new LinkedHashMap<>();
+    List<Document> total = result.getList(TOTAL_KEY, Document.class);
+    summary.put(TOTAL_KEY, total.isEmpty() ? 0 : total.get(0).getInteger(COUNT_KEY));
+    for (String field : SUMMARY_FIELDS) {
+      Map<String, Integer> counts = new LinkedHashMap<>();
+      for (Document group : result.getList(field, Document.class)) {
+        counts.put(String.valueOf(group.get("_id")), group.getInteger(COUNT_KEY));
+      }
+      summary.put(field, counts);
+    }
+    return summary;
+  }
+
+  /**
+   * @return the hit/miss counts for the summary cache
+   */
+  public Map<String, Long> summaryCacheStats() {
+    return summaryCache.stats();
+  }
+
+  static Bson constructFilter(Context ctx) {
     List<Bson> filters = new ArrayList<>(); // start with a blank document
 
+    // `search` matches whole words (with stemming) using the text index on
+    // the body, so it only has to look at the todos that actually match.
+    if (ctx.queryParamMap().containsKey(SEARCH_PARAMETER)) {
+      filters.add(text(ctx.queryParam(SEARCH_PARAMETER)));
+    }
+
+    // `contains` matches any substring of the body. A case-insensitive regex
+    // can't use an index, so this scans every todo; prefer `search` unless
+    // exact substring matching is really needed.
     if (ctx.queryParamMap().containsKey(CONTAINS_PARAMETER)) {
       filters.add(regex(BODY_KEY,  Pattern.quote(ctx.queryParam(CONTAINS_PARAMETER)), "i"));
     }
 
 
+    // Owner and category match either the whole value or a prefix of it,
+    // ignoring case (thanks to the collation the list query runs with).
+    if (ctx.queryParamMap().containsKey(OWNER_KEY)) {
+      filters.add(eq(OWNER_KEY, ctx.queryParam(OWNER_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(OWNER_PREFIX_PARAMETER)) {
+      filters.add(CaseInsensitive.startsWith(OWNER_KEY, ctx.queryParam(OWNER_PREFIX_PARAMETER)));
+    }
+    if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
+      filters.add(eq(CATEGORY_KEY, ctx.queryParam(CATEGORY_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(CATEGORY_PREFIX_PARAMETER)) {
+      filters.add(CaseInsensitive.startsWith(CATEGORY_KEY, ctx.queryParam(CATEGORY_PREFIX_PARAMETER)));
+    }
+
     if (ctx.queryParamMap().containsKey(STATUS_KEY)) {
       String status = ctx.queryParamAsClass(STATUS_KEY, String.class)
       // .check(it -> it.matches(STATUS_REGEX), "Todo must have a legal todo status")
@@ -134,14 +476,27 @@ public class TodoController {
     return combinedFilter;
   }
 
-  private Bson constructSortingOrder(Context ctx) {
+  static Integer constructLimit(Context ctx) {
+    // Without a `limit` query param we return every matching todo.
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      return null;
+    }
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The page size must be greater than zero")
+      .check(it -> it <= KeysetCursor.MAX_PAGE_SIZE, "The page size must be at most " + KeysetCursor.MAX_PAGE_SIZE)
+      .get();
+  }
+
+  static String constructSortField(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "owner")
     // as the field to sort by, and the query param `SortOrder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "owner");
+    return Objects.requireNonNullElse(ctx.queryParam("sortby"), OWNER_KEY);
+  }
+
+  static boolean constructSortDescending(Context ctx) {
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    return sortOrder.equals("desc");
   }
 
   /**
@@ -151,27 +506,16 @@ public class TodoController {
    * @param ctx a Javalin HTTP context
    */
   public void addNewTodo(Context ctx) {
-    /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `Todo` provided in this context is
-     * a "legal" todo. It checks the following things (in order):
-     *    - The todo has a value for the name (`usr.name != null`)
-     *    - The todo name is not blank (`usr.name.length > 0`)
-     *    - The provided email is valid (matches EMAIL_REGEX)
-     *    - The provided age is > 0
-     *    - The provided role is valid (one of "admin", "editor", or "viewer")
-     *    - A non-blank company is provided
-     */
-    Todo newTodo = ctx.bodyValidator(Todo.class)
-      .check(usr -> usr.owner != null && usr.owner.length() > 0, "Todo must have a non-empty todo name")
-     // .check(usr -> usr.status.matches(STATUS_REGEX), "Todo must have a legal status")
-      .check(usr -> usr.body != null && usr.body.length() > 0, "Todo must have a non-empty body name")
-      .check(usr -> usr.category != null && usr.category.length() > 0, "Todo must have a non-empty category name")
-      .get();
-
+    // The body is read in whatever format it was sent in, and checked
+    // against `VALIDATION_RULES`
+    Todo newTodo = WireFormat.readBody(ctx, Todo.class, VALIDATION_RULES);
 
-
-    todoCollection.insertOne(newTodo);
+    if (insertCoalescer != null) {
+      insertCoalescer.insert(newTodo);
+    } else {
+      todoCollection.insertOne(newTodo);
+    }
+    todoVersion.bump();
 
     ctx.json(Map.of("id", newTodo._id));
     // 201 is the HTTP code for when we successfully
@@ -181,6 +525,21 @@ public class TodoController {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Add every legal todo in the JSON array in the body of the request.
+   * The response lists, for each todo in order, its new ID or the reason
+   * it was rejected.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewTodos(Context ctx) {
+    int inserted = BulkInsert.handle(
+      ctx, Todo.class, VALIDATION_RULES, todo -> { }, todoCollection, todo -> todo._id);
+    if (inserted > 0) {
+      todoVersion.bump();
+    }
+  }
+
   /**
    * Delete the todo specified by the `id` parameter in the request.
    *
@@ -188,7 +547,14 @@ public class TodoController {
    */
   public void deleteTodo(Context ctx) {
     String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The todo id to delete wasn't a legal Mongo Object ID.");
+    }
     DeleteResult deleteResult = todoCollection.deleteOne(eq("_id", new ObjectId(id)));
+    if (deleteResult.getDeletedCount() > 0) {
+      todoVersion.bump();
+    }
+    todoCache.invalidate(id);
     if (deleteResult.getDeletedCount() != 1) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
@@ -198,4 +564,25 @@ public class TodoController {
     }
     ctx.status(HttpStatus.OK);
   }
+
+  /**
+   * Delete every todo that matches the filters in the query parameters
+   * (the same ones `getTodos` takes). See `BulkDelete` for the dry-run
+   * and cap parameters.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodos(Context ctx) {
+    // Match the same way `getTodos` does: text searches only work with
+    // the default collation, everything else ignores case.
+    Collation collation = ctx.queryParamMap().containsKey(SEARCH_PARAMETER) ? null : CaseInsensitive.COLLATION;
+    long deleted = BulkDelete.handle(ctx, todoCollection, constructFilter(ctx), collation);
+    if (deleted > 0) {
+      // Bump the version first, so no new ETag is handed out for what's
+      // still in the cache. We don't know which IDs went, so start the
+      // cache over.
+      todoVersion.bump();
+      todoCache.invalidateAll();
+    }
+  }
 }
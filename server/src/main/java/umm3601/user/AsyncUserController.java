@@ -0,0 +1,227 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import umm3601.CaseInsensitive;
+import umm3601.CollectionVersion;
+import umm3601.InsertCoalescer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PojoDocuments;
+import umm3601.Publishers;
+import umm3601.SparseFields;
+import umm3601.StreamingResponse;
+import umm3601.WireFormat;
+
+/**
+ * An alternative to `UserController` for the four core user handlers,
+ * built on the reactive-streams MongoDB driver.
+ * <p>
+ * See `AsyncTodoController`; this works the same way. The handlers take
+ * the same parameters and give the same responses as their `UserController`
+ * counterparts, except that single users are always read from the database,
+ * not from the cache (which is still kept up to date, as the synchronous
+ * handlers do).
+ */
+public class AsyncUserController {
+
+  private final MongoCollection<Document> userDocuments;
+  private final CollectionVersion userVersion;
+  private final LruCache<String, User> userCache;
+  private final UserController userController;
+  private final Executor responseWriter;
+
+  /**
+   * Construct an asynchronous controller for users.
+   *
+   * @param database the database containing user data, from the
+   *   reactive-streams driver
+   * @param userController the synchronous controller that handles the other
+   *   user endpoints; the two share the collection version (so the ETags
+   *   of either change when either changes the collection), the cache
+   *   (which deletes here keep up to date), insert batching, and avatars
+   * @param responseWriter where list responses are written
+   */
+  public AsyncUserController(MongoDatabase database, UserController userController, Executor responseWriter) {
+    this.userDocuments = database.getCollection("users");
+    this.userVersion = userController.version();
+    this.userCache = userController.cache();
+    this.userController = userController;
+    this.responseWriter = responseWriter;
+  }
+
+  /**
+   * Set the JSON body of the response to be the single user
+   * specified by the `id` parameter in the request
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUser(Context ctx) {
+    String id = ctx.pathParam("id");
+    SparseFields fields = SparseFields.from(ctx, User.class);
+
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
+    }
+    if (userVersion.isNotModified(ctx, id)) {
+      return;
+    }
+
+    FindPublisher<Document> found = userDocuments.find(eq("_id", new ObjectId(id)));
+    if (!fields.isAll()) {
+      found = found.projection(fields.projection());
+    }
+    FindPublisher<Document> query = found;
+    ctx.future(() -> Publishers.first(query).thenAccept(document -> {
+      if (document == null) {
+        throw new NotFoundResponse("The requested user was not found");
+      }
+      userVersion.tag(ctx);
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeValue(ctx, PojoDocuments.toPojo(document, User.class), fields);
+    }));
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the users returned from the database
+   * that match any requested filters and ordering
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsers(Context ctx) {
+    Bson combinedFilter = UserController.constructFilter(ctx);
+    String sortBy = UserController.constructSortField(ctx);
+    boolean descending = UserController.constructSortDescending(ctx);
+    Integer limit = UserController.constructLimit(ctx);
+    SparseFields fields = SparseFields.from(ctx, User.class);
+
+    if (ctx.queryParamMap().containsKey(UserController.AFTER_KEY)) {
+      combinedFilter = and(
+        combinedFilter,
+        KeysetCursor.after(ctx.queryParam(UserController.AFTER_KEY), sortBy, descending));
+    }
+
+    if (userVersion.isNotModified(ctx)) {
+      return;
+    }
+
+    FindPublisher<Document> results = userDocuments
+      .find(combinedFilter)
+      .sort(KeysetCursor.sort(sortBy, descending))
+      .collation(CaseInsensitive.COLLATION);
+    if (!fields.isAll()) {
+      // The next-page cursor is built from the raw documents, so they
+      // need the sort key even if the client didn't ask for it.
+      Bson projection = fields.projection();
+      results = results.projection(limit == null ? projection : Projections.fields(projection, include(sortBy)));
+    }
+
+    // Without a limit there could be any number of users, so they're
+    // written a batch at a time as they come in.
+    FindPublisher<Document> query = results;
+    if (limit == null) {
+      ctx.future(() -> CompletableFuture.runAsync(() -> {
+        userVersion.tag(ctx);
+        ctx.status(HttpStatus.OK);
+        StreamingResponse.writeArray(ctx, Publishers.iterate(query, AsyncUserController::toUser), fields);
+      }, responseWriter));
+      return;
+    }
+
+    // Ask for one extra user so we can tell whether there is another page.
+    // The cursor header has to go out before the body, so the (bounded)
+    // page is collected first.
+    ctx.future(() -> Publishers.toList(query.limit(limit + 1)).thenAcceptAsync(page -> {
+      if (page.size() > limit) {
+        page.remove(limit.intValue());
+        ctx.header(KeysetCursor.NEXT_CURSOR_HEADER, KeysetCursor.encode(page.get(limit - 1), sortBy));
+      }
+      userVersion.tag(ctx);
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeArray(ctx, users(page), fields);
+    }, responseWriter));
+  }
+
+  // Turn a document from a `getUsers` query into a user
+  private static User toUser(Document document) {
+    return PojoDocuments.toPojo(document, User.class);
+  }
+
+  // The users in a page of documents, turned into users as they're written
+  private static Iterable<User> users(List<Document> page) {
+    return () -> page.stream().map(AsyncUserController::toUser).iterator();
+  }
+
+  /**
+   * Add a new user using information from the context
+   * (as long as the information gives "legal" values to User fields)
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewUser(Context ctx) {
+    User newUser = WireFormat.readBody(ctx, User.class, UserController.VALIDATION_RULES);
+    newUser.avatar = userController.generateAvatar(newUser.email);
+
+    // Batch the insert up with others if the synchronous handler would
+    InsertCoalescer<User> coalescer = userController.insertCoalescer();
+    if (coalescer != null) {
+      ctx.future(() -> coalescer.submit(newUser).thenAccept(inserted -> created(ctx, inserted._id)));
+      return;
+    }
+
+    Document document = PojoDocuments.toDocument(newUser);
+    ctx.future(() -> Publishers.first(userDocuments.insertOne(document)).thenAccept(result ->
+      created(ctx, result.getInsertedId().asObjectId().getValue().toHexString())));
+  }
+
+  private void created(Context ctx, String id) {
+    userVersion.bump();
+    ctx.json(Map.of("id", id));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Delete the user specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteUser(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The user id to delete wasn't a legal Mongo Object ID.");
+    }
+
+    ctx.future(() -> Publishers.first(userDocuments.deleteOne(eq("_id", new ObjectId(id)))).thenAccept(result -> {
+      if (result.getDeletedCount() > 0) {
+        userVersion.bump();
+      }
+      userCache.invalidate(id);
+      if (result.getDeletedCount() != 1) {
+        ctx.status(HttpStatus.NOT_FOUND);
+        throw new NotFoundResponse(
+          "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+      }
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+}
@@ -2,19 +2,24 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Projections.include;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.result.DeleteResult;
 
 import org.bson.Document;
@@ -27,6 +32,18 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BulkDelete;
+import umm3601.BulkInsert;
+import umm3601.CaseInsensitive;
+import umm3601.CollectionVersion;
+import umm3601.InsertCoalescer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PojoDocuments;
+import umm3601.SparseFields;
+import umm3601.StreamingResponse;
+import umm3601.ValidationRule;
+import umm3601.WireFormat;
 
 /**
  * Controller that manages requests for info about users.
@@ -35,25 +52,157 @@ public class UserController {
 
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
+  static final String COMPANY_PREFIX_PARAMETER = "companyprefix";
   static final String ROLE_KEY = "role";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
 
   private static final int REASONABLE_AGE_LIMIT = 150;
   private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
 
+  // `String.matches` compiles its regex again on every call, so the
+  // patterns are compiled once here instead.
+  private static final Pattern ROLE_PATTERN = Pattern.compile(ROLE_REGEX);
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX);
+
+  /**
+   * The rules a new user has to pass, whether it's added on its own or as
+   * part of a bulk request. A legal user has (in order):
+   *    - A non-blank name
+   *    - A valid email (matches EMAIL_REGEX)
+   *    - An age greater than 0 and less than REASONABLE_AGE_LIMIT
+   *    - A valid role (one of "admin", "editor", or "viewer")
+   *    - A non-blank company
+   */
+  static final List<ValidationRule<User>> VALIDATION_RULES = List.of(
+    ValidationRule.of(usr -> usr.name != null && usr.name.length() > 0, "User must have a non-empty user name"),
+    ValidationRule.of(usr -> usr.email != null && EMAIL_PATTERN.matcher(usr.email).matches(),
+      "User must have a legal email"),
+    ValidationRule.of(usr -> usr.age > 0, "User's age must be greater than zero"),
+    ValidationRule.of(usr -> usr.age < REASONABLE_AGE_LIMIT, "User's age must be less than " + REASONABLE_AGE_LIMIT),
+    ValidationRule.of(usr -> usr.role != null && ROLE_PATTERN.matcher(usr.role).matches(),
+      "User must have a legal user role"),
+    ValidationRule.of(usr -> usr.company != null && usr.company.length() > 0, "User must have a non-empty company name")
+  );
+
+  /**
+   * The indexes that serve the queries `getUsers` builds. Every sort has
+   * `_id` as a tie-breaker (for keyset pagination), so the indexes end with
+   * it too; that lets MongoDB walk the index in order instead of sorting
+   * the results in memory. They use the case-insensitive collation, since
+   * that's what the list queries run with.
+   */
+  public static final List<IndexModel> INDEXES = List.of(
+    // The default sort (by name), and sorting by age or company
+    CaseInsensitive.index("name", "_id"),
+    CaseInsensitive.index(AGE_KEY, "_id"),
+    CaseInsensitive.index(COMPANY_KEY, "_id"),
+    // Filtering by age, company, or role, with the default sort
+    CaseInsensitive.index(AGE_KEY, "name", "_id"),
+    CaseInsensitive.index(COMPANY_KEY, "name", "_id"),
+    CaseInsensitive.index(ROLE_KEY, "name", "_id")
+  );
+
+  // How many users `getUser` keeps cached by default, and for how long
+  public static final int DEFAULT_CACHE_SIZE = 10_000;
+  public static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(1);
+
+  // An email's avatar never changes, so they can be kept for a long time.
+  // The cache is bounded both ways: it holds at most AVATAR_CACHE_SIZE
+  // emails, and emails longer than the longest legal address (RFC 5321)
+  // aren't cached at all, so with the ~70 character URIs it never holds
+  // more than a few megabytes of strings.
+  static final int AVATAR_CACHE_SIZE = 10_000;
+  static final int MAX_CACHED_EMAIL_LENGTH = 254;
+  private static final Duration AVATAR_CACHE_TTL = Duration.ofHours(1);
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final int NIBBLE_BITS = 4;
+  private static final int NIBBLE_MASK = 0xf;
+
+  // `MessageDigest.getInstance` looks the algorithm up among the security
+  // providers every time, and a digest can't be shared between threads,
+  // so each thread keeps one to reuse. (Under JETTY_THREADS=virtual every
+  // request has a new thread, so there it's one per request, as before.)
+  private static final ThreadLocal<MessageDigest> MD5_DIGESTS = new ThreadLocal<>();
+
   private final JacksonMongoCollection<User> userCollection;
+  private final MongoCollection<Document> userDocuments;
+
+  // Bumped whenever a user is added or deleted, and used to build ETags
+  private final CollectionVersion userVersion = new CollectionVersion();
+
+  // Read-through cache of single users, keyed by ID
+  private final LruCache<String, User> userCache;
+
+  // Avatar URIs, keyed by lower-cased email (which is what's hashed), so
+  // repeat emails aren't hashed again
+  private final LruCache<String, String> avatarCache = new LruCache<>(AVATAR_CACHE_SIZE, AVATAR_CACHE_TTL);
+
+  // Batches up single inserts when it's turned on (see `coalesceInserts`)
+  private InsertCoalescer<User> insertCoalescer;
 
   /**
-   * Construct a controller for users.
+   * Construct a controller for users, with a default-sized cache.
    *
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
+    this(database, new LruCache<>(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL));
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data
+   * @param userCache the cache to keep single users (looked up by ID) in
+   */
+  public UserController(MongoDatabase database, LruCache<String, User> userCache) {
     userCollection = JacksonMongoCollection.builder().build(
         database,
         "users",
         User.class,
         UuidRepresentation.STANDARD);
+    userDocuments = database.getCollection("users");
+    this.userCache = userCache;
+  }
+
+  /**
+   * Have `addNewUser` insert users in batches with any others that
+   * arrive at about the same time, rather than one at a time.
+   *
+   * @param maxBatchSize the most users to insert at once
+   * @param maxWait how long to wait for more users to batch up with
+   * @return the coalescer, so it can be monitored and closed
+   */
+  public InsertCoalescer<User> coalesceInserts(int maxBatchSize, Duration maxWait) {
+    insertCoalescer = new InsertCoalescer<>("users", userCollection, maxBatchSize, maxWait);
+    return insertCoalescer;
+  }
+
+  /**
+   * @return the version of the users collection that ETags are built from,
+   *   for other handlers that change the collection to bump
+   */
+  CollectionVersion version() {
+    return userVersion;
+  }
+
+  /**
+   * @return the cache of single users, for other handlers that delete
+   *   users to keep up to date
+   */
+  LruCache<String, User> cache() {
+    return userCache;
+  }
+
+  /**
+   * @return the coalescer single inserts are batched up with, or `null`
+   *   if they aren't (see `coalesceInserts`)
+   */
+  InsertCoalescer<User> insertCoalescer() {
+    return insertCoalescer;
   }
 
   /**
@@ -64,18 +213,33 @@ public class UserController {
    */
   public void getUser(Context ctx) {
     String id = ctx.pathParam("id");
-    User user;
-
-    try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
-    } catch (IllegalArgumentException e) {
+    SparseFields fields = SparseFields.from(ctx, User.class);
+    if (!ObjectId.isValid(id)) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
+
+    // If the client already has the current version, there's no need
+    // to go to the database at all.
+    if (userVersion.isNotModified(ctx, id)) {
+      return;
+    }
+
+    // Hot users are served from the cache. The cache always holds the
+    // whole user; if the client only wants some fields, the others are
+    // left out when it's written.
+    User user = userCache.get(id, key -> userCollection.find(eq("_id", new ObjectId(key))).first());
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
-    } else {
+    }
+    userVersion.tag(ctx);
+    if (fields.isAll() && WireFormat.forResponse(ctx) == WireFormat.JSON) {
       ctx.json(user);
       ctx.status(HttpStatus.OK);
+    } else {
+      // Only write out the fields the client asked for, in the format
+      // it asked for
+      ctx.status(HttpStatus.OK);
+      StreamingResponse.writeValue(ctx, user, fields);
     }
   }
 
@@ -87,27 +251,69 @@ public class UserController {
    */
   public void getUsers(Context ctx) {
     Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
-
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the users with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
-    // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
-
-    // Explicitly set the context status to OK
+    String sortBy = constructSortField(ctx);
+    boolean descending = constructSortDescending(ctx);
+    Integer limit = constructLimit(ctx);
+    SparseFields fields = SparseFields.from(ctx, User.class);
+
+    // If the client is asking for a later page, only look at the users
+    // that come after the cursor it was handed for the previous page.
+    if (ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      combinedFilter = and(combinedFilter, KeysetCursor.after(ctx.queryParam(AFTER_KEY), sortBy, descending));
+    }
+
+    // If the client already has the current version of these results,
+    // there's no need to go to the database at all.
+    if (userVersion.isNotModified(ctx)) {
+      return;
+    }
+
+    // Set the status up front, since the body is written as the results
+    // come back from the database and the status can't change after that.
+    userVersion.tag(ctx);
     ctx.status(HttpStatus.OK);
+
+    // Both the find and sort steps happen "in parallel" inside the database
+    // system. So MongoDB is going to find the users with the specified
+    // properties and return those sorted in the specified manner.
+    Bson sort = KeysetCursor.sort(sortBy, descending);
+    if (limit != null) {
+      // The page is read as plain documents, so the next-page cursor can be
+      // built from the last one without going back to the database. That
+      // needs the sort key, even if the client didn't ask for it (it isn't
+      // written out, since it's not one of the requested fields).
+      FindIterable<Document> results = userDocuments.find(combinedFilter)
+        .sort(sort)
+        .collation(CaseInsensitive.COLLATION);
+      if (!fields.isAll()) {
+        results = results.projection(Projections.fields(fields.projection(), include(sortBy)));
+      }
+      // Ask for one extra user so we can tell whether there is another page.
+      // A page is bounded in size, so it's fine to hold it in memory while we
+      // work out the cursor header, which has to go out before the body.
+      ArrayList<Document> page = results.limit(limit + 1).into(new ArrayList<>());
+      if (page.size() > limit) {
+        page.remove(limit.intValue());
+        ctx.header(KeysetCursor.NEXT_CURSOR_HEADER, KeysetCursor.encode(page.get(limit - 1), sortBy));
+      }
+      List<User> users = new ArrayList<>(page.size());
+      page.forEach(document -> users.add(PojoDocuments.toPojo(document, User.class)));
+      StreamingResponse.writeArray(ctx, users, fields);
+    } else {
+      FindIterable<User> results = userCollection.find(combinedFilter)
+        .sort(sort)
+        .collation(CaseInsensitive.COLLATION);
+      // Only fetch the fields the client asked for
+      if (!fields.isAll()) {
+        results = results.projection(fields.projection());
+      }
+      // Write each user to the response as it comes off the database cursor,
+      // rather than collecting them all in a list first.
+      StreamingResponse.writeArray(ctx, results, fields);
+    }
   }
 
-  private Bson constructFilter(Context ctx) {
+  static Bson constructFilter(Context ctx) {
     List<Bson> filters = new ArrayList<>(); // start with a blank document
 
     if (ctx.queryParamMap().containsKey(AGE_KEY)) { //if age is passed as parameter
@@ -117,12 +323,18 @@ public class UserController {
         .get(); // getting age that was requested
       filters.add(eq(AGE_KEY, targetAge));
     }
+    // Company matches either the whole name or a prefix of it, ignoring case.
+    // These are plain comparisons (not regexes), so with the case-insensitive
+    // collation the list query runs with, they can use the company indexes.
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      filters.add(regex(COMPANY_KEY,  Pattern.quote(ctx.queryParam(COMPANY_KEY)), "i"));
+      filters.add(eq(COMPANY_KEY, ctx.queryParam(COMPANY_KEY)));
+    }
+    if (ctx.queryParamMap().containsKey(COMPANY_PREFIX_PARAMETER)) {
+      filters.add(CaseInsensitive.startsWith(COMPANY_KEY, ctx.queryParam(COMPANY_PREFIX_PARAMETER)));
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
       String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
+        .check(it -> ROLE_PATTERN.matcher(it).matches(), "User must have a legal user role")
         .get();
       filters.add(eq(ROLE_KEY, role));
     }
@@ -133,14 +345,27 @@ public class UserController {
     return combinedFilter;
   }
 
-  private Bson constructSortingOrder(Context ctx) {
+  static Integer constructLimit(Context ctx) {
+    // Without a `limit` query param we return every matching user.
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      return null;
+    }
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The page size must be greater than zero")
+      .check(it -> it <= KeysetCursor.MAX_PAGE_SIZE, "The page size must be at most " + KeysetCursor.MAX_PAGE_SIZE)
+      .get();
+  }
+
+  static String constructSortField(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
+    return Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
+  }
+
+  static boolean constructSortDescending(Context ctx) {
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    return sortOrder.equals("desc");
   }
 
   /**
@@ -150,30 +375,19 @@ public class UserController {
    * @param ctx a Javalin HTTP context
    */
   public void addNewUser(Context ctx) {
-    /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `User` provided in this context is
-     * a "legal" user. It checks the following things (in order):
-     *    - The user has a value for the name (`usr.name != null`)
-     *    - The user name is not blank (`usr.name.length > 0`)
-     *    - The provided email is valid (matches EMAIL_REGEX)
-     *    - The provided age is > 0
-     *    - The provided role is valid (one of "admin", "editor", or "viewer")
-     *    - A non-blank company is provided
-     */
-    User newUser = ctx.bodyValidator(User.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0, "User must have a non-empty user name")
-      .check(usr -> usr.email.matches(EMAIL_REGEX), "User must have a legal email")
-      .check(usr -> usr.age > 0, "User's age must be greater than zero")
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT, "User's age must be less than " + REASONABLE_AGE_LIMIT)
-      .check(usr -> usr.role.matches(ROLE_REGEX), "User must have a legal user role")
-      .check(usr -> usr.company != null && usr.company.length() > 0, "User must have a non-empty company name")
-      .get();
+    // The body is read in whatever format it was sent in, and checked
+    // against `VALIDATION_RULES`
+    User newUser = WireFormat.readBody(ctx, User.class, VALIDATION_RULES);
 
     // Generate a user avatar (you won't need this part for todos)
     newUser.avatar = generateAvatar(newUser.email);
 
-    userCollection.insertOne(newUser);
+    if (insertCoalescer != null) {
+      insertCoalescer.insert(newUser);
+    } else {
+      userCollection.insertOne(newUser);
+    }
+    userVersion.bump();
 
     ctx.json(Map.of("id", newUser._id));
     // 201 is the HTTP code for when we successfully
@@ -183,6 +397,24 @@ public class UserController {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Add every legal user in the JSON array in the body of the request.
+   * The response lists, for each user in order, its new ID or the reason
+   * it was rejected.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewUsers(Context ctx) {
+    // Every new user gets an avatar, just like with `addNewUser`
+    Consumer<User> addAvatar = usr -> {
+      usr.avatar = generateAvatar(usr.email);
+    };
+    int inserted = BulkInsert.handle(ctx, User.class, VALIDATION_RULES, addAvatar, userCollection, usr -> usr._id);
+    if (inserted > 0) {
+      userVersion.bump();
+    }
+  }
+
   /**
    * Delete the user specified by the `id` parameter in the request.
    *
@@ -190,7 +422,14 @@ public class UserController {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The user id to delete wasn't a legal Mongo Object ID.");
+    }
     DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    if (deleteResult.getDeletedCount() > 0) {
+      userVersion.bump();
+    }
+    userCache.invalidate(id);
     if (deleteResult.getDeletedCount() != 1) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
@@ -212,7 +451,21 @@ public class UserController {
    * @param email the email to generate an avatar for
    * @return a URI pointing to an avatar image
    */
-  private String generateAvatar(String email) {
+  String generateAvatar(String email) {
+    if (email.length() > MAX_CACHED_EMAIL_LENGTH) {
+      return gravatarFor(email);
+    }
+    return avatarCache.get(email.toLowerCase(), this::gravatarFor);
+  }
+
+  /**
+   * @return the hit/miss counts for the avatar cache
+   */
+  public Map<String, Long> avatarCacheStats() {
+    return avatarCache.stats();
+  }
+
+  private String gravatarFor(String email) {
     String avatar;
     try {
       // generate unique md5 code for identicon
@@ -231,13 +484,39 @@ public class UserController {
    */
   @SuppressWarnings("lgtm[java/weak-cryptographic-algorithm]")
   public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
+    MessageDigest md = MD5_DIGESTS.get();
+    if (md == null) {
+      md = MessageDigest.getInstance("MD5");
+      MD5_DIGESTS.set(md);
+    }
+    // `digest` resets the digest, so it's ready for the next call
     byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
 
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
+    // Two hex digits per byte, looked up rather than formatted
+    char[] result = new char[hashInBytes.length * 2];
+    for (int i = 0; i < hashInBytes.length; i++) {
+      result[2 * i] = HEX_DIGITS[(hashInBytes[i] >> NIBBLE_BITS) & NIBBLE_MASK];
+      result[2 * i + 1] = HEX_DIGITS[hashInBytes[i] & NIBBLE_MASK];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Delete every user that matches the filters in the query parameters
+   * (the same ones `getUsers` takes). See `BulkDelete` for the dry-run
+   * and cap parameters.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteUsers(Context ctx) {
+    // Match the same way `getUsers` does, ignoring case
+    long deleted = BulkDelete.handle(ctx, userCollection, constructFilter(ctx), CaseInsensitive.COLLATION);
+    if (deleted > 0) {
+      // Bump the version first, so no new ETag is handed out for what's
+      // still in the cache. We don't know which IDs went, so start the
+      // cache over.
+      userVersion.bump();
+      userCache.invalidateAll();
     }
-    return result.toString();
   }
 }
@@ -0,0 +1,165 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests that `AdmissionControl` sheds requests over a route's limit, cuts
+ * the limit when responses are slow, and holds clients to their rate.
+ * The clock is a counter the tests (and handlers) move along by hand, so
+ * "slow" doesn't depend on how fast the machine is.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AdmissionControlSpec {
+
+  private final AtomicLong clock = new AtomicLong();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch held = new CountDownLatch(4);
+
+  private AdmissionControl admission;
+  private Javalin server;
+  private HttpClient client;
+
+  private void start(AdmissionControl control) {
+    admission = control;
+    server = Javalin.create();
+    admission.protect(server, "/held", "/slow", "/fast");
+    server.get("/held", ctx -> {
+      held.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      ctx.result("done");
+    });
+    server.get("/slow", ctx -> {
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      ctx.result("done");
+    });
+    server.get("/fast", ctx -> ctx.result("done"));
+    server.start(0);
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    client = HttpClient.newHttpClient();
+  }
+
+  @AfterEach
+  public void teardownEach() {
+    release.countDown();
+    server.stop();
+  }
+
+  private HttpRequest request(String path) {
+    return HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path)).build();
+  }
+
+  private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+    return client.send(request(path), HttpResponse.BodyHandlers.ofString());
+  }
+
+  // The counts are updated as each response finishes, which can be just
+  // after the client has it.
+  private long awaitStat(String path, String stat, long expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (admission.stats(path).get(stat) != expected && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    return admission.stats(path).get(stat);
+  }
+
+  @Test
+  public void requestsOverTheLimitAreShed() throws IOException, InterruptedException {
+    start(new AdmissionControl(Duration.ofMillis(500), 4, clock::get));
+
+    List<CompletableFuture<HttpResponse<String>>> inFlight = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      inFlight.add(client.sendAsync(request("/held"), HttpResponse.BodyHandlers.ofString()));
+    }
+    held.await(10, TimeUnit.SECONDS);
+
+    HttpResponse<String> shed = get("/held");
+    assertEquals(503, shed.statusCode());
+    assertEquals(Optional.of("1"), shed.headers().firstValue("Retry-After"));
+    // Other routes have limits of their own
+    assertEquals(200, get("/fast").statusCode());
+
+    release.countDown();
+    for (CompletableFuture<HttpResponse<String>> response : inFlight) {
+      assertEquals(200, response.join().statusCode());
+    }
+    assertEquals(0L, awaitStat("/held", "inFlight", 0));
+    assertEquals(4L, admission.stats("/held").get("admitted"));
+    assertEquals(1L, admission.stats("/held").get("rejected"));
+  }
+
+  @Test
+  public void slowResponsesCutTheLimit() throws IOException, InterruptedException {
+    start(new AdmissionControl(Duration.ofMillis(500), 200, clock::get));
+    assertEquals(20L, admission.stats("/slow").get("limit"));
+
+    assertEquals(200, get("/slow").statusCode());
+
+    assertEquals(18L, awaitStat("/slow", "limit", 18));
+  }
+
+  @Test
+  public void quietRoutesKeepTheirLimit() throws IOException, InterruptedException {
+    start(new AdmissionControl(Duration.ofMillis(500), 200, clock::get));
+
+    for (int i = 0; i < 50; i++) {
+      assertEquals(200, get("/fast").statusCode());
+    }
+
+    // One request at a time never gets near the limit, so it isn't raised.
+    assertEquals(50L, awaitStat("/fast", "admitted", 50));
+    assertEquals(20L, admission.stats("/fast").get("limit"));
+  }
+
+  @Test
+  public void clientsAreHeldToTheirRate() throws IOException, InterruptedException {
+    start(new AdmissionControl(Duration.ofMillis(500), 200, clock::get).rateLimitClients(1, 2));
+
+    assertEquals(200, get("/fast").statusCode());
+    assertEquals(200, get("/fast").statusCode());
+    HttpResponse<String> limited = get("/fast");
+    assertEquals(429, limited.statusCode());
+    assertEquals(Optional.of("1"), limited.headers().firstValue("Retry-After"));
+    assertEquals(1L, admission.rateLimited());
+
+    // A second later, there's a token again.
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(200, get("/fast").statusCode());
+  }
+
+  @Test
+  public void clientsCanBeRateLimitedWithoutAConcurrencyLimit() throws IOException, InterruptedException {
+    start(new AdmissionControl(Duration.ofMillis(500), 200, clock::get)
+      .limitConcurrency(false)
+      .rateLimitClients(1, 2));
+
+    assertEquals(200, get("/fast").statusCode());
+    assertEquals(200, get("/fast").statusCode());
+    assertEquals(429, get("/fast").statusCode());
+    assertEquals(1L, admission.rateLimited());
+    assertTrue(admission.stats().isEmpty());
+  }
+}
@@ -0,0 +1,132 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mongojack.JacksonMongoCollection;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import umm3601.todo.Todo;
+
+/**
+ * Tests how `BulkInsert` copes with requests that are too big and with
+ * writes that fail outright, using a mock collection so the failures
+ * can be made to happen.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class BulkInsertSpec {
+
+  @Mock
+  private Context ctx;
+
+  @Mock
+  private JacksonMongoCollection<Todo> collection;
+
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> responseCaptor;
+
+  @BeforeEach
+  public void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  private int insert() {
+    return BulkInsert.handle(ctx, Todo.class, List.of(), todo -> { }, collection, todo -> "some-id");
+  }
+
+  private void body(String json) {
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String todos(int count) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < count; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"owner\": \"Bulk\", \"body\": \"todo ").append(i).append("\"}");
+    }
+    return json.append("]").toString();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void aChunkThatCantBeWrittenFailsOnItsOwn() {
+    // The first chunk hits a dropped connection; the second goes through.
+    body(todos(BulkInsert.CHUNK_SIZE + 1));
+    when(collection.insertMany(anyList(), any(InsertManyOptions.class)))
+      .thenThrow(new MongoException("connection reset"))
+      .thenReturn(null);
+
+    assertEquals(1, insert());
+
+    verify(ctx).json(responseCaptor.capture());
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+    Map<String, Object> response = responseCaptor.getValue();
+    assertEquals(1, response.get("inserted"));
+    assertEquals(BulkInsert.CHUNK_SIZE, response.get("failed"));
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertTrue(((String) results.get(0).get("error")).contains("connection reset"));
+    assertEquals("some-id", results.get(BulkInsert.CHUNK_SIZE).get("id"));
+  }
+
+  @Test
+  public void tooManyItemsAreTurnedAway() {
+    body(todos(BulkInsert.MAX_ITEMS + 1));
+
+    assertThrows(BadRequestResponse.class, this::insert);
+    verify(collection, never()).insertMany(anyList(), any(InsertManyOptions.class));
+  }
+
+  @Test
+  public void aBodyThatSaysItsTooBigIsntRead() {
+    when(ctx.contentLength()).thenReturn(BulkInsert.MAX_BYTES + 1);
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, this::insert);
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+    verify(ctx, never()).bodyInputStream();
+  }
+
+  @Test
+  public void aBodyThatTurnsOutTooBigIsCutOff() {
+    // No Content-Length, and a body that never ends
+    when(ctx.bodyInputStream()).thenReturn(new InputStream() {
+      private boolean started;
+
+      @Override
+      public int read() {
+        if (!started) {
+          started = true;
+          return '[';
+        }
+        return ' ';
+      }
+    });
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, this::insert);
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+    verify(collection, never()).insertMany(anyList(), any(InsertManyOptions.class));
+  }
+}
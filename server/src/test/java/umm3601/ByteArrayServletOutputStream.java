@@ -0,0 +1,73 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * A servlet output stream that just remembers everything that's written
+ * to it. Handing one of these to a mocked `Context` lets the specs read
+ * back responses that the controllers stream out (instead of passing them
+ * to `ctx.json()`).
+ */
+public class ByteArrayServletOutputStream extends ServletOutputStream {
+
+  private static ObjectMapper objectMapper = new ObjectMapper();
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public void setWriteListener(WriteListener writeListener) {
+    // Writes never block, so there's nothing to notify.
+  }
+
+  @Override
+  public void write(int b) {
+    bytes.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    bytes.write(b, off, len);
+  }
+
+  /**
+   * @return everything written so far, e.g., to decode a binary format
+   */
+  public byte[] toByteArray() {
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return everything written so far, decoded as UTF-8
+   */
+  @Override
+  public String toString() {
+    return bytes.toString(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse everything written so far as a JSON array of the given type.
+   *
+   * @param <T> the type of the elements in the array
+   * @param type the class of the elements in the array
+   * @return the list of elements that was written
+   * @throws IOException if what was written isn't a JSON array of that type
+   */
+  public <T> List<T> readList(Class<T> type) throws IOException {
+    return objectMapper.readValue(
+      bytes.toByteArray(),
+      objectMapper.getTypeFactory().constructCollectionType(List.class, type));
+  }
+}
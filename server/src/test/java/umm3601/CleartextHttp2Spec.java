@@ -0,0 +1,87 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests that a server with the `CleartextHttp2` connector answers both
+ * HTTP/2 and HTTP/1.1 clients on the same port.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CleartextHttp2Spec {
+
+  private Javalin server;
+
+  @BeforeEach
+  public void setupEach() {
+    server = Javalin.create(config -> config.jetty.server(() -> {
+      org.eclipse.jetty.server.Server jetty = new org.eclipse.jetty.server.Server();
+      jetty.addConnector(CleartextHttp2.connector(jetty, 0));
+      return jetty;
+    }));
+    server.get("/hello", ctx -> ctx.result("hello"));
+    server.start();
+  }
+
+  @AfterEach
+  public void teardownEach() {
+    server.stop();
+  }
+
+  private HttpResponse<String> get(HttpClient client) throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/hello")).build();
+    return client.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void http2ClientsGetHttp2() throws IOException, InterruptedException {
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+
+    // The first request upgrades the connection; the rest share it.
+    for (int i = 0; i < 3; i++) {
+      HttpResponse<String> response = get(client);
+      assertEquals(HttpClient.Version.HTTP_2, response.version());
+      assertEquals("hello", response.body());
+    }
+  }
+
+  @Test
+  public void concurrentRequestsAreMultiplexed() throws IOException, InterruptedException {
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+    get(client);
+
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/hello")).build();
+    List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+    }
+    for (CompletableFuture<HttpResponse<String>> response : responses) {
+      assertEquals(HttpClient.Version.HTTP_2, response.join().version());
+      assertEquals("hello", response.join().body());
+    }
+  }
+
+  @Test
+  public void http11ClientsStillGetHttp11() throws IOException, InterruptedException {
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    HttpResponse<String> response = get(client);
+
+    assertEquals(HttpClient.Version.HTTP_1_1, response.version());
+    assertEquals("hello", response.body());
+  }
+}
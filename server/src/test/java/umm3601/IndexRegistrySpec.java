@@ -0,0 +1,88 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.todo.TodoController;
+import umm3601.user.UserController;
+
+/**
+ * Tests that the `IndexRegistry` creates the indexes the controllers
+ * declare, and that applying it again doesn't change anything.
+ */
+public class IndexRegistrySpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @BeforeAll
+  public static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build()
+    );
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  public static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    db.getCollection("todos").drop();
+    db.getCollection("users").drop();
+  }
+
+  private IndexRegistry registry() {
+    return new IndexRegistry()
+      .register("todos", TodoController.INDEXES)
+      .register("users", UserController.INDEXES);
+  }
+
+  @Test
+  public void createsEveryRegisteredIndex() {
+    List<String> created = registry().apply(db);
+
+    assertEquals(TodoController.INDEXES.size() + UserController.INDEXES.size(), created.size());
+
+    List<String> userIndexes = db.getCollection("users")
+      .listIndexes()
+      .map(index -> index.getString("name"))
+      .into(new ArrayList<>());
+    assertTrue(userIndexes.contains("name_1__id_1_ci"));
+    assertTrue(userIndexes.contains("role_1_name_1__id_1_ci"));
+  }
+
+  @Test
+  public void applyingTwiceIsANoOp() {
+    registry().apply(db);
+    List<Document> before = db.getCollection("todos").listIndexes().into(new ArrayList<>());
+
+    List<String> created = registry().apply(db);
+
+    assertTrue(created.isEmpty());
+    assertEquals(before, db.getCollection("todos").listIndexes().into(new ArrayList<>()));
+  }
+}
@@ -0,0 +1,153 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the `InsertCoalescer` batches up inserts, gives each caller
+ * its own `_id`, and only fails the items that actually failed.
+ */
+public class InsertCoalescerSpec {
+
+  private static final int BATCH_SIZE = 10;
+  // Long enough that the test's inserts all land in the same window
+  private static final Duration WAIT = Duration.ofMillis(200);
+  private static final int SUBMITS_WHILE_CLOSING = 1_000;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> collection;
+  private InsertCoalescer<Document> coalescer;
+
+  @BeforeAll
+  public static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build()
+    );
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  public static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    collection = db.getCollection("coalesced");
+    collection.drop();
+    coalescer = new InsertCoalescer<>("test", collection, BATCH_SIZE, WAIT);
+  }
+
+  @AfterEach
+  public void teardownEach() {
+    coalescer.close();
+  }
+
+  @Test
+  public void insertsArrivingTogetherShareABatch() {
+    List<CompletableFuture<Document>> futures = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      futures.add(coalescer.submit(new Document("n", i)));
+    }
+
+    Set<Object> ids = new HashSet<>();
+    for (CompletableFuture<Document> future : futures) {
+      ids.add(future.join().get("_id"));
+    }
+
+    // Every caller got its own `_id` back ...
+    assertEquals(BATCH_SIZE, ids.size());
+    assertEquals(BATCH_SIZE, collection.countDocuments());
+    // ... from a single (full) insertMany.
+    assertEquals(1L, coalescer.stats().get("batches"));
+    assertEquals(1L, coalescer.stats().get("fullFlushes"));
+    assertEquals((long) BATCH_SIZE, coalescer.stats().get("largestBatch"));
+  }
+
+  @Test
+  public void aFailedItemOnlyFailsItsOwnCaller() {
+    ObjectId id = new ObjectId();
+    collection.insertOne(new Document("_id", id));
+
+    CompletableFuture<Document> duplicate = coalescer.submit(new Document("_id", id));
+    CompletableFuture<Document> fine = coalescer.submit(new Document("n", 1));
+
+    CompletionException thrown = assertThrows(CompletionException.class, duplicate::join);
+    assertTrue(thrown.getCause() instanceof MongoWriteException);
+    assertTrue(fine.join().containsKey("_id"));
+    assertEquals(1L, coalescer.stats().get("failedItems"));
+    assertEquals(2, collection.countDocuments());
+  }
+
+  @Test
+  public void insertBlocksUntilTheItemIsWritten() {
+    Document document = new Document("n", 1);
+    coalescer.insert(document);
+
+    assertEquals(1, collection.countDocuments(new Document("_id", document.get("_id"))));
+  }
+
+  @Test
+  public void closingRefusesNewItems() {
+    coalescer.close();
+
+    assertThrows(IllegalStateException.class, () -> coalescer.insert(new Document("n", 1)));
+  }
+
+  @Test
+  public void itemsSubmittedWhileClosingAreAllSettled() throws InterruptedException {
+    List<CompletableFuture<Document>> futures = new ArrayList<>();
+    Thread submitter = new Thread(() -> {
+      for (int i = 0; i < SUBMITS_WHILE_CLOSING; i++) {
+        CompletableFuture<Document> future = coalescer.submit(new Document("n", i));
+        synchronized (futures) {
+          futures.add(future);
+        }
+      }
+    });
+    submitter.start();
+    coalescer.close();
+    submitter.join();
+
+    // Every item was either inserted or refused; none of them is left
+    // waiting on a worker that has gone away.
+    synchronized (futures) {
+      for (CompletableFuture<Document> future : futures) {
+        assertTrue(future.isDone());
+      }
+    }
+  }
+}
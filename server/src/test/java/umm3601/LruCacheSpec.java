@@ -0,0 +1,142 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the eviction, expiration, and invalidation behavior of `LruCache`,
+ * using a fake clock so nothing has to actually wait.
+ */
+public class LruCacheSpec {
+
+  private static final Duration TTL = Duration.ofSeconds(10);
+
+  private AtomicLong now;
+  private AtomicInteger loads;
+  private Function<String, String> loader;
+  private LruCache<String, String> cache;
+
+  @BeforeEach
+  public void setupEach() {
+    now = new AtomicLong();
+    loads = new AtomicInteger();
+    loader = key -> {
+      loads.incrementAndGet();
+      return key.toUpperCase();
+    };
+    cache = new LruCache<>(2, TTL, now::get);
+  }
+
+  @Test
+  public void secondLookupIsAHit() {
+    assertEquals("A", cache.get("a", loader));
+    assertEquals("A", cache.get("a", loader));
+
+    assertEquals(1, loads.get());
+    assertEquals(1L, cache.stats().get("hits"));
+    assertEquals(1L, cache.stats().get("misses"));
+  }
+
+  @Test
+  public void staysWithinItsMaximumSize() {
+    cache.get("a", loader);
+    cache.get("b", loader);
+    // Something has to make room for "c".
+    cache.get("c", loader);
+
+    assertEquals(2, cache.size());
+    assertEquals(1L, cache.stats().get("evictions"));
+  }
+
+  @Test
+  public void expiredEntriesAreReloaded() {
+    cache.get("a", loader);
+    now.addAndGet(TTL.toNanos());
+    cache.get("a", loader);
+
+    assertEquals(2, loads.get());
+    assertEquals(1L, cache.stats().get("expirations"));
+  }
+
+  @Test
+  public void invalidatedEntriesAreReloaded() {
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.invalidate("a");
+    assertEquals(1, cache.size());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+
+    cache.get("a", loader);
+    cache.get("b", loader);
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void missingValuesAreNotCached() {
+    assertNull(cache.get("a", key -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void invalidationDuringALoadIsntOverwritten() throws InterruptedException {
+    // The key is invalidated (e.g., the item is deleted) while it's
+    // being loaded, so the loaded value may be stale and mustn't stick.
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    Thread load = new Thread(() -> cache.get("a", key -> {
+      loading.countDown();
+      try {
+        finishLoad.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "stale";
+    }));
+    load.start();
+    loading.await();
+
+    Thread invalidate = new Thread(() -> cache.invalidate("a"));
+    invalidate.start();
+    finishLoad.countDown();
+    load.join();
+    invalidate.join();
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void invalidateAllDuringALoadIsntOverwritten() throws InterruptedException {
+    // As above, but clearing the whole cache (e.g., after a bulk delete),
+    // which Caffeine doesn't hold up for loads that are under way.
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    Thread load = new Thread(() -> cache.get("a", key -> {
+      loading.countDown();
+      try {
+        finishLoad.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "stale";
+    }));
+    load.start();
+    loading.await();
+
+    cache.invalidateAll();
+    finishLoad.countDown();
+    load.join();
+
+    assertEquals(0, cache.size());
+  }
+}
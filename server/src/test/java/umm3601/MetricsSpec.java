@@ -0,0 +1,103 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Tests that `Metrics` times requests by route and status, and turns
+ * `stats()` maps into gauges.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MetricsSpec {
+
+  private Metrics metrics;
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  public void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    metrics = new Metrics();
+
+    // Make the mock remember its attributes, as a real context would
+    Map<String, Object> attributes = new HashMap<>();
+    doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(ctx).attribute(anyString(), ArgumentMatchers.any());
+    when(ctx.attribute(anyString())).then(invocation -> attributes.get(invocation.getArgument(0)));
+    when(ctx.method()).thenReturn(HandlerType.GET);
+  }
+
+  private void request(String route, int status) {
+    when(ctx.endpointHandlerPath()).thenReturn(route);
+    when(ctx.statusCode()).thenReturn(status);
+    metrics.startTimer(ctx);
+    metrics.stopTimer(ctx);
+  }
+
+  private Timer timer(String route, String status) {
+    return metrics.registry().find(Metrics.REQUESTS).tags("uri", route, "status", status).timer();
+  }
+
+  @Test
+  public void requestsAreTimedByRoute() {
+    request("/api/users/{id}", 200);
+    request("/api/users/{id}", 200);
+    request("/api/users", 200);
+
+    assertEquals(2, timer("/api/users/{id}", "200").count());
+    assertEquals(1, timer("/api/users", "200").count());
+  }
+
+  @Test
+  public void serverErrorsAreCounted() {
+    request("/api/todos", 404);
+    request("/api/todos", 500);
+
+    assertEquals(1, timer("/api/todos", "404").count());
+    assertNull(metrics.registry().find(Metrics.ERRORS).tags("status", "404").counter());
+    assertEquals(1, metrics.registry().find(Metrics.ERRORS).tags("status", "500").counter().count());
+  }
+
+  @Test
+  public void unmatchedRequestsShareATimer() {
+    request("*", 404);
+    request(null, 404);
+
+    assertEquals(2, timer(Metrics.UNMATCHED_ROUTE, "404").count());
+  }
+
+  @Test
+  public void statsBecomeGauges() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("hits", 3L);
+    stats.put("waits", Map.of());
+    metrics.registerStats("app.cache", Tags.of("cache", "users"), () -> stats);
+    stats.put("hits", 5L);
+
+    assertEquals(5, metrics.registry().find("app.cache").tags("stat", "hits").gauge().value());
+    assertNull(metrics.registry().find("app.cache").tags("stat", "waits").gauge());
+    assertNotNull(metrics.registry().find("app.cache").tags("cache", "users").gauge());
+    assertTrue(metrics.registry().scrape().contains("app_cache{cache=\"users\",stat=\"hits\",} 5.0"));
+  }
+}
@@ -0,0 +1,103 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `MongoConfig` reads its settings from the environment and
+ * properties, and that a `PoolMonitor` added through it sees the pool
+ * being used.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MongoConfigSpec {
+
+  @Test
+  public void environmentNamesFollowThePropertyNames() {
+    assertEquals("MONGO_ADDR", MongoConfig.environmentName(MongoConfig.ADDR));
+    assertEquals("MONGO_POOL_MAX_SIZE", MongoConfig.environmentName(MongoConfig.POOL_MAX_SIZE));
+    assertEquals("MONGO_SOCKET_READ_TIMEOUT_MILLIS", MongoConfig.environmentName(MongoConfig.READ_TIMEOUT_MILLIS));
+  }
+
+  @Test
+  public void unsetSettingsKeepTheDefaults() {
+    MongoConfig config = new MongoConfig(Map.of(), new Properties());
+
+    assertEquals("localhost", config.address());
+    assertEquals("dev", config.databaseName());
+    MongoClientSettings defaults = MongoClientSettings.builder().build();
+    assertEquals(
+      defaults.getConnectionPoolSettings().getMaxSize(),
+      config.clientSettings().getConnectionPoolSettings().getMaxSize());
+  }
+
+  @Test
+  public void theEnvironmentOverridesTheProperties() {
+    Properties properties = new Properties();
+    properties.setProperty(MongoConfig.POOL_MAX_SIZE, "20");
+    properties.setProperty(MongoConfig.POOL_MAX_WAIT_MILLIS, "500");
+    properties.setProperty(MongoConfig.READ_PREFERENCE, "secondaryPreferred");
+
+    MongoClientSettings settings = new MongoConfig(Map.of("MONGO_POOL_MAX_SIZE", "50"), properties)
+      .clientSettings();
+
+    assertEquals(50, settings.getConnectionPoolSettings().getMaxSize());
+    assertEquals(500, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+    assertEquals(ReadPreference.secondaryPreferred(), settings.getReadPreference());
+  }
+
+  @Test
+  public void badNumbersAreReported() {
+    MongoConfig config = new MongoConfig(Map.of("MONGO_POOL_MAX_SIZE", "lots"), new Properties());
+
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, config::clientSettings);
+    assertTrue(thrown.getMessage().contains("MONGO_POOL_MAX_SIZE"));
+  }
+
+  @Test
+  public void poolMonitorSeesCheckOuts() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    PoolMonitor monitor = new PoolMonitor();
+    MongoConfig config = new MongoConfig(
+      Map.of("MONGO_ADDR", mongoAddr, "MONGO_POOL_MAX_SIZE", "5"), new Properties());
+
+    try (MongoClient client = MongoClients.create(config.clientSettings(monitor))) {
+      client.getDatabase("test").runCommand(new Document("ping", 1));
+    }
+
+    Map<String, Object> stats = monitor.stats();
+    assertEquals(5, stats.get("maxSize"));
+    assertTrue((long) stats.get("checkOuts") > 0);
+    // Everything has been checked back in.
+    assertEquals(0, stats.get("inUse"));
+  }
+
+  @Test
+  public void reactivePoolMonitorLeavesWaitsOut() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    PoolMonitor monitor = new PoolMonitor(false);
+    MongoConfig config = new MongoConfig(Map.of("MONGO_ADDR", mongoAddr), new Properties());
+
+    try (MongoClient client = MongoClients.create(config.clientSettings(monitor))) {
+      client.getDatabase("test").runCommand(new Document("ping", 1));
+    }
+
+    Map<String, Object> stats = monitor.stats();
+    assertTrue((long) stats.get("checkOuts") > 0);
+    assertFalse(stats.containsKey("meanWaitMicros"));
+    assertFalse(stats.containsKey("waits"));
+  }
+}
@@ -0,0 +1,112 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests that a server set up with `ResponseCompression` gzips the
+ * responses it should, and counts what that saved.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ResponseCompressionSpec {
+
+  private static final String BIG = "lorem ipsum dolor sit amet ".repeat(200);
+
+  private ResponseCompression compression;
+  private Javalin server;
+  private HttpClient client;
+
+  @BeforeEach
+  public void setupEach() {
+    compression = new ResponseCompression(1024, 6);
+    server = Javalin.create(config -> {
+      config.compression.none();
+      config.jetty.contextHandlerConfig(handler -> handler.setGzipHandler(compression.handler()));
+    });
+    server.get("/big", ctx -> ctx.result(BIG));
+    server.get("/streamed", ctx -> ctx.outputStream().write(BIG.getBytes(StandardCharsets.UTF_8)));
+    server.get("/small", ctx -> ctx.result("tiny"));
+    server.start(0);
+    client = HttpClient.newHttpClient();
+  }
+
+  @AfterEach
+  public void teardownEach() {
+    server.stop();
+  }
+
+  private HttpResponse<InputStream> get(String path, boolean acceptGzip) throws IOException, InterruptedException {
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path));
+    if (acceptGzip) {
+      request.header("Accept-Encoding", "gzip");
+    }
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+  }
+
+  private static String gunzip(InputStream body) throws IOException {
+    try (InputStream in = new GZIPInputStream(body)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void bigResponsesAreGzipped() throws IOException, InterruptedException {
+    for (String path : new String[] {"/big", "/streamed"}) {
+      HttpResponse<InputStream> response = get(path, true);
+
+      assertEquals(Optional.of("gzip"), response.headers().firstValue("Content-Encoding"), path);
+      assertEquals(BIG, gunzip(response.body()));
+    }
+
+    // The counts are added up as each response finishes, which can be
+    // just after the client has the whole body.
+    long deadline = System.nanoTime() + 5_000_000_000L;
+    while (compression.stats().get("responses") < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Map<String, Long> stats = compression.stats();
+    assertEquals(2L, stats.get("responses"));
+    assertEquals(2L * BIG.length(), stats.get("bytesIn"));
+    assertTrue(stats.get("bytesSaved") > BIG.length(), stats.toString());
+  }
+
+  @Test
+  public void smallResponsesAreNotGzipped() throws IOException, InterruptedException {
+    HttpResponse<InputStream> response = get("/small", true);
+
+    assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+    assertEquals("tiny", new String(response.body().readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void onlyClientsThatAcceptGzipGetIt() throws IOException, InterruptedException {
+    HttpResponse<InputStream> response = get("/big", false);
+
+    assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+    assertEquals(BIG, new String(response.body().readAllBytes(), StandardCharsets.UTF_8));
+    assertEquals(0L, compression.stats().get("responses"));
+  }
+
+  @Test
+  public void levelMustBeLegal() {
+    assertThrows(IllegalArgumentException.class, () -> new ResponseCompression(1024, 10));
+  }
+}
@@ -0,0 +1,123 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `SlowQueryLog` picks out the slow finds and explains them.
+ * "Slow" is set to 0ms (or a minute) so the tests don't depend on how
+ * fast the database is, and the explains run on the calling thread so
+ * they're done by the time the find returns.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class SlowQueryLogSpec {
+
+  private MongoClient mongoClient;
+  private MongoCollection<Document> todos;
+
+  private MongoCollection<Document> connect(SlowQueryLog log) {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .addCommandListener(log)
+        .build());
+    log.explainWith(mongoClient);
+    return mongoClient.getDatabase("test").getCollection("slowQueries");
+  }
+
+  @AfterEach
+  public void teardownEach() {
+    todos.drop();
+    mongoClient.close();
+  }
+
+  private void insertTodos() {
+    todos.drop();
+    List<Document> docs = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      docs.add(new Document("owner", "owner" + i % 4).append("category", "category" + i % 5));
+    }
+    todos.insertMany(docs);
+  }
+
+  @Test
+  public void slowFindsAreExplained() {
+    SlowQueryLog log = new SlowQueryLog(0, Runnable::run);
+    todos = connect(log);
+    insertTodos();
+
+    todos.find(eq("owner", "owner1")).sort(Sorts.ascending("category")).limit(3).into(new ArrayList<>());
+
+    List<Map<String, Object>> recent = log.recent();
+    assertEquals(1, recent.size());
+    Map<String, Object> query = recent.get(0);
+    assertEquals("slowQueries", query.get("collection"));
+    assertEquals("{\"owner\": \"owner1\"}", query.get("filter"));
+    assertEquals("{\"category\": 1}", query.get("sort"));
+    assertEquals(3L, query.get("limit"));
+    assertTrue(((String) query.get("plan")).contains("COLLSCAN"), query.toString());
+    assertEquals(20L, query.get("docsExamined"));
+    assertEquals(3L, query.get("returned"));
+    assertEquals(1L, log.stats().get("slowQueries"));
+  }
+
+  @Test
+  public void explainShowsTheIndex() {
+    SlowQueryLog log = new SlowQueryLog(0, Runnable::run);
+    todos = connect(log);
+    insertTodos();
+    todos.createIndex(Indexes.ascending("owner"));
+
+    todos.find(eq("owner", "owner1")).into(new ArrayList<>());
+
+    Map<String, Object> query = log.recent().get(0);
+    assertTrue(((String) query.get("plan")).contains("IXSCAN(owner_1)"), query.toString());
+    assertEquals(5L, query.get("docsExamined"));
+    assertEquals(5L, query.get("returned"));
+  }
+
+  @Test
+  public void fastFindsAreNotLogged() {
+    SlowQueryLog log = new SlowQueryLog(60_000, Runnable::run);
+    todos = connect(log);
+    insertTodos();
+
+    todos.find(eq("owner", "owner1")).into(new ArrayList<>());
+
+    assertTrue(log.recent().isEmpty());
+    assertEquals(0L, log.stats().get("slowQueries"));
+  }
+
+  @Test
+  public void onlyTheMostRecentAreKept() {
+    SlowQueryLog log = new SlowQueryLog(0, Runnable::run);
+    todos = connect(log);
+    insertTodos();
+
+    for (int i = 0; i < SlowQueryLog.MAX_RECENT + 5; i++) {
+      todos.find(eq("owner", "owner" + i)).first();
+    }
+
+    List<Map<String, Object>> recent = log.recent();
+    assertEquals(SlowQueryLog.MAX_RECENT, recent.size());
+    assertEquals("{\"owner\": \"owner5\"}", recent.get(0).get("filter"));
+  }
+}
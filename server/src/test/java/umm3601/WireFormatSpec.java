@@ -0,0 +1,41 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests how `WireFormat` picks a format from the `Accept` and
+ * `Content-Type` headers.
+ */
+public class WireFormatSpec {
+
+  @Test
+  public void jsonIsTheDefault() {
+    assertEquals(WireFormat.JSON, WireFormat.forAccept(null));
+    assertEquals(WireFormat.JSON, WireFormat.forAccept("*/*"));
+    assertEquals(WireFormat.JSON, WireFormat.forAccept("text/html, application/xhtml+xml"));
+    assertEquals(WireFormat.JSON, WireFormat.forContentType(null));
+    assertEquals(WireFormat.JSON, WireFormat.forContentType("application/json; charset=utf-8"));
+  }
+
+  @Test
+  public void theBestQualityWins() {
+    assertEquals(WireFormat.CBOR, WireFormat.forAccept("application/CBOR"));
+    assertEquals(WireFormat.SMILE, WireFormat.forAccept("application/json;q=0.9, application/x-jackson-smile"));
+    assertEquals(WireFormat.JSON, WireFormat.forAccept("application/x-msgpack;q=0.5, */*;q=0.8"));
+    // On a tie, the first one listed wins
+    assertEquals(WireFormat.MESSAGE_PACK, WireFormat.forAccept("application/x-msgpack, application/cbor"));
+  }
+
+  @Test
+  public void excludedFormatsAreNeverPicked() {
+    assertEquals(WireFormat.JSON, WireFormat.forAccept("application/cbor;q=0"));
+  }
+
+  @Test
+  public void bodyFormatComesFromTheContentType() {
+    assertEquals(WireFormat.SMILE, WireFormat.forContentType("application/x-jackson-smile"));
+    assertEquals(WireFormat.MESSAGE_PACK, WireFormat.forContentType("application/x-msgpack; charset=binary"));
+  }
+}
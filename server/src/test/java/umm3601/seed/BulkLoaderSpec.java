@@ -0,0 +1,136 @@
+package umm3601.seed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the pieces of the seeder: reading seed files, making up data,
+ * and loading it in parallel batches.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class BulkLoaderSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoCollection<Document> seeded;
+
+  @BeforeAll
+  public static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build());
+    seeded = mongoClient.getDatabase("test").getCollection("seeded");
+  }
+
+  @AfterAll
+  public static void teardown() {
+    seeded.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    seeded.drop();
+  }
+
+  @Test
+  public void loadsEveryDocument() throws InterruptedException {
+    BulkLoader.Result result = new BulkLoader(3, 100)
+      .load(seeded, SyntheticData.todos(1050, new Random(1)));
+
+    assertEquals(1050, result.inserted());
+    assertEquals(0, result.rejected());
+    assertEquals(1050, seeded.countDocuments());
+    assertTrue(result.documentsPerSecond() > 0);
+  }
+
+  @Test
+  public void rejectedDocumentsAreCountedAndSkipped() throws InterruptedException {
+    ObjectId duplicate = new ObjectId();
+    List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      documents.add(new Document("_id", i % 4 == 0 ? duplicate : new ObjectId()).append("n", i));
+    }
+
+    BulkLoader.Result result = new BulkLoader(2, 4).load(seeded, documents.iterator());
+
+    // The three documents with the same ID are all sent; only one gets in.
+    assertEquals(8, result.inserted());
+    assertEquals(2, result.rejected());
+    assertEquals(8, seeded.countDocuments());
+  }
+
+  @Test
+  public void syntheticDataIsRepeatable() {
+    Document first = SyntheticData.users(1, new Random(7)).next();
+    Document second = SyntheticData.users(1, new Random(7)).next();
+    first.remove("_id");
+    second.remove("_id");
+
+    assertEquals(first, second);
+    assertTrue(SyntheticData.COMPANIES.contains(first.getString("company")));
+    assertTrue(SyntheticData.ROLES.contains(first.getString("role")));
+  }
+
+  @Test
+  public void readsExtendedJsonArrays(@TempDir File tempDir) throws IOException {
+    File file = new File(tempDir, "todos.json");
+    Files.writeString(file.toPath(), "[\n"
+      + "  {\"_id\": {\"$oid\": \"58af3a600343927e48e8720f\"}, \"owner\": \"Blanche\", \"status\": false},\n"
+      + "  {\"owner\": \"Fry\", \"tags\": [\"a\", {\"b\": 1}]}\n"
+      + "]", StandardCharsets.UTF_8);
+
+    try (JsonArrayReader reader = new JsonArrayReader(file)) {
+      Document blanche = reader.next();
+      assertEquals(new ObjectId("58af3a600343927e48e8720f"), blanche.getObjectId("_id"));
+      assertEquals(false, blanche.getBoolean("status"));
+      Document fry = reader.next();
+      assertEquals("Fry", fry.getString("owner"));
+      assertEquals(2, fry.getList("tags", Object.class).size());
+      assertFalse(reader.hasNext());
+    }
+  }
+
+  @Test
+  public void filesMustHoldAnArray(@TempDir File tempDir) throws IOException {
+    File file = new File(tempDir, "users.json");
+    Files.writeString(file.toPath(), "{\"name\": \"Connie\"}", StandardCharsets.UTF_8);
+
+    assertThrows(IOException.class, () -> new JsonArrayReader(file));
+  }
+
+  @Test
+  public void parsesOptions() {
+    Map<String, String> options = Seeder.parseOptions(new String[] {"--todos=5", "--keep"});
+
+    assertEquals("5", options.get("todos"));
+    assertEquals("", options.get("keep"));
+    assertThrows(IllegalArgumentException.class, () -> Seeder.parseOptions(new String[] {"todos=5"}));
+  }
+}
@@ -0,0 +1,285 @@
+package umm3601.todo;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validator;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.InsertCoalescer;
+import umm3601.KeysetCursor;
+import umm3601.Publishers;
+
+/**
+ * Tests the asynchronous todo handlers. The handlers give Javalin a
+ * future through `ctx.future`; here we capture it and wait for it, which
+ * is what Javalin would do before finishing the response.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AsyncTodoControllerSpec {
+
+  private TodoController todoController;
+  private AsyncTodoController asyncTodoController;
+  private ObjectId samsId;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+  private static com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+
+  private static JavalinJackson javalinJackson = new JavalinJackson();
+
+  @Mock
+  private Context ctx;
+
+  private ByteArrayServletOutputStream outputStream;
+
+  @Captor
+  private ArgumentCaptor<Supplier<? extends CompletableFuture<?>>> futureCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, String>> mapCaptor;
+
+  @BeforeAll
+  public static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClientSettings settings = MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build();
+
+    mongoClient = MongoClients.create(settings);
+    reactiveClient = com.mongodb.reactivestreams.client.MongoClients.create(settings);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  public static void teardown() {
+    db.drop();
+    mongoClient.close();
+    reactiveClient.close();
+  }
+
+  @BeforeEach
+  public void setupEach() throws IOException {
+    MockitoAnnotations.openMocks(this);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    todoDocuments.drop();
+    List<Document> testTodos = new ArrayList<>();
+    testTodos.add(new Document()
+        .append("owner", "Chris").append("category", "Homework")
+        .append("body", "Sociology reading").append("status", "complete"));
+    testTodos.add(new Document()
+        .append("owner", "Joe").append("category", "Sports")
+        .append("body", "Tennis Project").append("status", "incomplete"));
+    testTodos.add(new Document()
+        .append("owner", "Poe").append("category", "video games")
+        .append("body", "This is a body").append("status", "incomplete"));
+    samsId = new ObjectId();
+    testTodos.add(new Document()
+        .append("_id", samsId).append("owner", "Sam").append("category", "Games")
+        .append("body", "Play Video Games").append("status", "complete"));
+    todoDocuments.insertMany(testTodos);
+
+    todoController = new TodoController(db);
+    asyncTodoController = new AsyncTodoController(
+      reactiveClient.getDatabase("test"), todoController, ForkJoinPool.commonPool());
+  }
+
+  // Wait for the future the handler gave Javalin, as Javalin would.
+  private void awaitFuture() {
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+  }
+
+  @Test
+  public void canGetAllTodos() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    asyncTodoController.getTodos(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(4, todos.size());
+    // Sorted by owner, by default
+    assertEquals("Chris", todos.get(0).owner);
+    assertEquals(samsId.toHexString(), todos.get(3)._id);
+  }
+
+  @Test
+  public void canGetMoreTodosThanOneBatch() throws IOException {
+    // An unpaged list is read a batch at a time; make sure the later
+    // batches are asked for.
+    List<Document> moreTodos = new ArrayList<>();
+    for (int i = 0; i < 2 * Publishers.BATCH_SIZE; i++) {
+      moreTodos.add(new Document()
+          .append("owner", "Zed").append("category", "homework")
+          .append("body", "Todo " + i).append("status", "incomplete"));
+    }
+    db.getCollection("todos").insertMany(moreTodos);
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    asyncTodoController.getTodos(ctx);
+    awaitFuture();
+
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(4 + 2 * Publishers.BATCH_SIZE, todos.size());
+    assertEquals("Zed", todos.get(todos.size() - 1).owner);
+  }
+
+  @Test
+  public void limitedTodosComeWithACursor() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.LIMIT_KEY, List.of("3")));
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validator<Integer>(TodoController.LIMIT_KEY, 3, null));
+
+    asyncTodoController.getTodos(ctx);
+    awaitFuture();
+
+    assertEquals(3, outputStream.readList(Todo.class).size());
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), ArgumentMatchers.anyString());
+  }
+
+  @Test
+  public void getTodoWithExistentId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    asyncTodoController.getTodo(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    assertTrue(outputStream.toString().contains("\"owner\":\"Sam\""));
+  }
+
+  @Test
+  public void getTodoWithNonexistentId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    asyncTodoController.getTodo(ctx);
+
+    CompletionException thrown = assertThrows(CompletionException.class, this::awaitFuture);
+    assertTrue(thrown.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  public void addTodo() throws IOException {
+    String testNewTodo = "{"
+        + "\"owner\": \"Test Todo\","
+        + "\"category\": \"testers\","
+        + "\"body\": \"this is for testing\","
+        + "\"status\": \"complete\""
+        + "}";
+    when(ctx.bodyValidator(Todo.class))
+      .then(value -> new BodyValidator<Todo>(testNewTodo, Todo.class, javalinJackson));
+
+    asyncTodoController.addNewTodo(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.CREATED);
+    verify(ctx).json(mapCaptor.capture());
+    Document addedTodo = db.getCollection("todos")
+      .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Test Todo", addedTodo.get("owner"));
+    assertEquals("complete", addedTodo.get("status"));
+  }
+
+  @Test
+  public void addTodoIsBatchedWhenTheSyncHandlerWouldBe() throws IOException {
+    String testNewTodo = "{"
+        + "\"owner\": \"Batched Todo\","
+        + "\"category\": \"testers\","
+        + "\"body\": \"this is for testing\","
+        + "\"status\": \"complete\""
+        + "}";
+    when(ctx.bodyValidator(Todo.class))
+      .then(value -> new BodyValidator<Todo>(testNewTodo, Todo.class, javalinJackson));
+
+    try (InsertCoalescer<Todo> coalescer = todoController.coalesceInserts(10, Duration.ofMillis(1))) {
+      asyncTodoController.addNewTodo(ctx);
+      awaitFuture();
+
+      assertEquals(1L, coalescer.stats().get("items"));
+    }
+    verify(ctx).status(HttpStatus.CREATED);
+    verify(ctx).json(mapCaptor.capture());
+    Document addedTodo = db.getCollection("todos")
+      .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Batched Todo", addedTodo.get("owner"));
+  }
+
+  @Test
+  public void deleteFoundTodo() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    asyncTodoController.deleteTodo(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(0, db.getCollection("todos").countDocuments(eq("_id", samsId)));
+  }
+
+  @Test
+  public void deleteTodoWithBadId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      asyncTodoController.deleteTodo(ctx);
+    });
+  }
+
+  @Test
+  public void deletedTodoIsntServedFromTheCache() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    // The synchronous handler caches Sam's todo
+    todoController.getTodo(ctx);
+
+    asyncTodoController.deleteTodo(ctx);
+    awaitFuture();
+
+    assertThrows(NotFoundResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+  }
+}
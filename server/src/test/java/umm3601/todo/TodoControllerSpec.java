@@ -1,14 +1,19 @@
 package umm3601.todo;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.mockito.ArgumentMatchers.argThat;
 import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,6 +23,9 @@ import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
@@ -25,6 +33,7 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -33,8 +42,8 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import org.mockito.ArgumentMatcher;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -44,9 +53,13 @@ import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.KeysetCursor;
+import umm3601.SparseFields;
 
 /**
  * Tests the logic of the TodoController
@@ -84,8 +97,9 @@ public class TodoControllerSpec {
   @Mock
   private Context ctx;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<Todo>> todoArrayListCaptor;
+  // Collects whatever the controller streams out through `ctx.outputStream()`
+  // (which is how the list endpoints write their results).
+  private ByteArrayServletOutputStream outputStream;
 
   @Captor
   private ArgumentCaptor<Todo> todoCaptor;
@@ -93,6 +107,12 @@ public class TodoControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> bulkResultCaptor;
+
+  @Captor
+  private ArgumentCaptor<String> headerValueCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -125,6 +145,8 @@ public class TodoControllerSpec {
   public void setupEach() throws IOException {
     // Reset our mock context and argument captor (declared with Mockito annotations @Mock and @Captor)
     MockitoAnnotations.openMocks(this);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
 
     // Setup database
     MongoCollection<Document> todoDocuments = db.getCollection("todos");
@@ -173,22 +195,14 @@ public class TodoControllerSpec {
     // (which will, indeed, ask the context for its queryParamMap)
     todoController.getTodos(ctx);
 
-    // We are going to capture an argument to a function, and the type of that argument will be
-    // of type ArrayList<Todo> (we said so earlier using a Mockito annotation like this):
-    // @Captor
-    // private ArgumentCaptor<ArrayList<Todo>> todoArrayListCaptor;
-    // We only want to declare that captor once and let the annotation
-    // help us accomplish reassignment of the value for the captor
-    // We reset the values of our annotated declarations using the command
-    // `MockitoAnnotations.openMocks(this);` in our @BeforeEach
-
-    // Specifically, we want to pay attention to the ArrayList<Todo> that is passed as input
-    // when ctx.json is called --- what is the argument that was passed? We capture it and can refer to it later
-    verify(ctx).json(todoArrayListCaptor.capture());
+    // The controller streams the list of todos out as JSON rather than
+    // handing it to `ctx.json()`, so we read back what was written to the
+    // (fake) output stream and turn it back into a List<Todo>.
     verify(ctx).status(HttpStatus.OK);
+    List<Todo> todos = outputStream.readList(Todo.class);
 
-    // Check that the database collection holds the same number of documents as the size of the captured List<Todo>
-    assertEquals(db.getCollection("todos").countDocuments(), todoArrayListCaptor.getValue().size());
+    // Check that the database collection holds the same number of documents as the size of the streamed List<Todo>
+    assertEquals(db.getCollection("todos").countDocuments(), todos.size());
   }
 
 
@@ -217,16 +231,11 @@ public class TodoControllerSpec {
     // Verify that `getTodos` called `ctx.status(200)` at some point.
     verify(ctx).status(HttpStatus.OK);
 
-    // Verify that `ctx.json()` is called with a `List` of `Todo`s.
+    // Verify that a `List` of `Todo`s was written out.
     // Each of those `Todo`s should have age 37.
-    verify(ctx).json(argThat(new ArgumentMatcher<List<Todo>>() {
-      public boolean matches(List<Todo> todos) {
-        for (Todo todo : todos) {
-          assertEquals("complete", todo.status);
-        }
-        return true;
-      }
-    }));
+    for (Todo todo : outputStream.readList(Todo.class)) {
+      assertEquals("complete", todo.status);
+    }
   }
 
   /**
@@ -252,17 +261,183 @@ public class TodoControllerSpec {
 
  todoController.getTodos(ctx);
 
- verify(ctx).json(todoArrayListCaptor.capture());
+ List<Todo> todos = outputStream.readList(Todo.class);
  verify(ctx).status(HttpStatus.OK);
 
  // Confirm that all the todos passed to `json` work for OHMNET.
- for (Todo todo : todoArrayListCaptor.getValue()) {
+ for (Todo todo : todos) {
  assertEquals("Sociology reading", todo.body);
  }
  }
 
 
 
+  @Test
+  public void canGetTodosByOwnerIgnoringCase() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.OWNER_KEY, Arrays.asList(new String[] {"sam"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.OWNER_KEY)).thenReturn("sam");
+
+    todoController.getTodos(ctx);
+
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(1, todos.size());
+    assertEquals("Sam", todos.get(0).owner);
+  }
+
+  @Test
+  public void canGetTodosByCategoryPrefix() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.CATEGORY_PREFIX_PARAMETER, Arrays.asList(new String[] {"VIDEO"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.CATEGORY_PREFIX_PARAMETER)).thenReturn("VIDEO");
+
+    todoController.getTodos(ctx);
+
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(1, todos.size());
+    assertEquals("Poe", todos.get(0).owner);
+  }
+
+  @Test
+  public void canSearchTodoBodies() throws IOException {
+    db.getCollection("todos").createIndex(Indexes.text(TodoController.BODY_KEY));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.SEARCH_PARAMETER, Arrays.asList(new String[] {"games"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.SEARCH_PARAMETER)).thenReturn("games");
+
+    todoController.getTodos(ctx);
+
+    // The text search is stemmed and case-insensitive, so "games" matches "Games".
+    verify(ctx).status(HttpStatus.OK);
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(1, todos.size());
+    assertEquals("Sam", todos.get(0).owner);
+  }
+
+  @Test
+  public void canSortSearchResultsByRelevance() throws IOException {
+    db.getCollection("todos").createIndex(Indexes.text(TodoController.BODY_KEY));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.SEARCH_PARAMETER, Arrays.asList(new String[] {"tennis project play"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.SEARCH_PARAMETER)).thenReturn("tennis project play");
+    when(ctx.queryParam("sortby")).thenReturn(TodoController.RELEVANCE_SORT);
+
+    todoController.getTodos(ctx);
+
+    // Joe's todo matches two of the words, and Sam's only one.
+    List<Todo> todos = outputStream.readList(Todo.class);
+    assertEquals(2, todos.size());
+    assertEquals("Joe", todos.get(0).owner);
+    assertEquals("Sam", todos.get(1).owner);
+  }
+
+  @Test
+  public void cannotSortByRelevanceWithoutSearching() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam("sortby")).thenReturn(TodoController.RELEVANCE_SORT);
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void canPageThroughTodosInDescendingOrder() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {"3"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam("sortorder")).thenReturn("desc");
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "3", TodoController.LIMIT_KEY));
+
+    todoController.getTodos(ctx);
+
+    List<Todo> firstPage = outputStream.readList(Todo.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(3, firstPage.size());
+    assertEquals("Sam", firstPage.get(0).owner);
+    assertEquals("Joe", firstPage.get(2).owner);
+
+    String cursor = headerValueCaptor.getValue();
+    queryParams.put(TodoController.AFTER_KEY, Arrays.asList(new String[] {cursor}));
+    when(ctx.queryParam(TodoController.AFTER_KEY)).thenReturn(cursor);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    todoController.getTodos(ctx);
+
+    // Only Chris is left, so there shouldn't be another cursor.
+    List<Todo> secondPage = outputStream.readList(Todo.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(1, secondPage.size());
+    assertEquals("Chris", secondPage.get(0).owner);
+  }
+
+  @Test
+  public void canGetOnlySomeFieldsOfTodos() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(SparseFields.FIELDS_PARAMETER, List.of("owner, status")));
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("owner, status");
+
+    todoController.getTodos(ctx);
+
+    // Only the requested fields (and the ID) should have been written out.
+    verify(ctx).status(HttpStatus.OK);
+    String json = outputStream.toString();
+    assertTrue(json.contains("\"owner\""));
+    assertTrue(json.contains("\"status\""));
+    assertTrue(json.contains("\"_id\""));
+    assertFalse(json.contains("\"body\""));
+    assertFalse(json.contains("\"category\""));
+    assertEquals(db.getCollection("todos").countDocuments(), outputStream.readList(Todo.class).size());
+  }
+
+  @Test
+  public void canPageThroughOnlySomeFieldsOfTodos() throws IOException {
+    // The todos are sorted (and paged) by owner, which isn't one of the
+    // requested fields, so the cursor can't come from what was written out.
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(SparseFields.FIELDS_PARAMETER, Arrays.asList(new String[] {"status"}));
+    queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("status");
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "2", TodoController.LIMIT_KEY));
+
+    todoController.getTodos(ctx);
+
+    String firstJson = outputStream.toString();
+    List<Todo> firstPage = outputStream.readList(Todo.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(2, firstPage.size());
+    assertFalse(firstJson.contains("\"owner\""));
+    assertFalse(firstJson.contains("\"body\""));
+    // Chris and Joe come first, and both of their todos have a status.
+    assertEquals("complete", firstPage.get(0).status);
+    assertEquals("incomplete", firstPage.get(1).status);
+
+    String cursor = headerValueCaptor.getValue();
+    queryParams.put(TodoController.AFTER_KEY, Arrays.asList(new String[] {cursor}));
+    when(ctx.queryParam(TodoController.AFTER_KEY)).thenReturn(cursor);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    todoController.getTodos(ctx);
+
+    // Poe and Sam are left, and neither page should repeat a todo.
+    String secondJson = outputStream.toString();
+    List<Todo> secondPage = outputStream.readList(Todo.class);
+    assertEquals(2, secondPage.size());
+    assertFalse(secondJson.contains("\"owner\""));
+    assertEquals(samsId.toHexString(), secondPage.get(1)._id);
+    for (Todo todo : secondPage) {
+      assertFalse(firstPage.stream().anyMatch(seen -> seen._id.equals(todo._id)));
+    }
+  }
+
   @Test
   public void getTodoWithExistentId() throws IOException {
     String id = samsId.toHexString();
@@ -276,6 +451,123 @@ public class TodoControllerSpec {
     assertEquals(samsId.toHexString(), todoCaptor.getValue()._id);
   }
 
+  @Test
+  public void canGetOnlySomeFieldsOfTodo() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("owner");
+
+    todoController.getTodo(ctx);
+
+    // The todo is written out by hand rather than through `ctx.json()`.
+    verify(ctx, never()).json(ArgumentMatchers.any());
+    verify(ctx).status(HttpStatus.OK);
+    String json = outputStream.toString();
+    assertTrue(json.contains("\"Sam\""));
+    assertTrue(json.contains(samsId.toHexString()));
+    assertFalse(json.contains("\"body\""));
+    assertFalse(json.contains("\"category\""));
+  }
+
+  @Test
+  public void getTodoVariesOnAccept() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    // Even a plain JSON response depends on the `Accept` header ...
+    todoController.getTodo(ctx);
+
+    verify(ctx).json(ArgumentMatchers.any());
+    verify(ctx).header(Header.VARY, Header.ACCEPT);
+
+    // ... and so does the 304 that answers a conditional request for it.
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    todoController.getTodo(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, times(2)).header(Header.VARY, Header.ACCEPT);
+  }
+
+  @Test
+  public void cannotGetFieldsThatTodosDontHave() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(SparseFields.FIELDS_PARAMETER, List.of("$where")));
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("$where");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+
+    // Nor names that only look like paths into a field
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("_id.$");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+  }
+
+  @Test
+  public void getTodoIsNotModifiedWhenETagMatches() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    todoController.getTodo(ctx);
+
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    // Asking again with that ETag should get a 304, and no body.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    todoController.getTodo(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx).json(todoCaptor.capture());
+  }
+
+  @Test
+  public void deletingTodoChangesETag() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    todoController.getTodos(ctx);
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    todoController.deleteTodo(ctx);
+
+    // The old ETag is stale now, so we should get the full (new) list back.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+    assertEquals(3, outputStream.readList(Todo.class).size());
+  }
+
+  @Test
+  public void conditionalGetTodoStillChecksTheId() throws IOException {
+    // `*` only matches an existing todo, and we can't know that up front.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+    when(ctx.pathParam("id")).thenReturn("bad");
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+    assertThrows(NotFoundResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+
+    // Nor does the current ETag of the list match a single todo.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(todoController.version().etag(ctx));
+    assertThrows(NotFoundResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+
   @Test
   public void getTodoWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -285,6 +577,8 @@ public class TodoControllerSpec {
     });
 
     assertEquals("The requested todo id wasn't a legal Mongo Object ID.", exception.getMessage());
+    // An error response shouldn't carry an ETag a client might cache.
+    verify(ctx, never()).header(ArgumentMatchers.eq(Header.ETAG), ArgumentMatchers.anyString());
   }
 
   @Test
@@ -297,6 +591,47 @@ public class TodoControllerSpec {
     });
 
     assertEquals("The requested todo was not found", exception.getMessage());
+    // An error response shouldn't carry an ETag a client might cache.
+    verify(ctx, never()).header(ArgumentMatchers.eq(Header.ETAG), ArgumentMatchers.anyString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void addNewTodosInsertsTheLegalOnes() throws IOException {
+    String testNewTodos = "["
+      + "{\"owner\": \"Bulk\", \"category\": \"testers\", \"body\": \"one\", \"status\": \"complete\"},"
+      + " {\"owner\": \"Bulk\", \"category\": \"testers\", \"body\": \"\", \"status\": \"complete\"},"
+      + " {\"owner\": \"Bulk\", \"category\": \"testers\", \"body\": \"three\", \"status\": \"incomplete\"}]";
+    when(ctx.bodyInputStream())
+      .thenReturn(new ByteArrayInputStream(testNewTodos.getBytes(StandardCharsets.UTF_8)));
+
+    todoController.addNewTodos(ctx);
+
+    // The middle one is rejected, so the status is 207 rather than 201.
+    verify(ctx).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+    Map<String, Object> response = bulkResultCaptor.getValue();
+    assertEquals(2, response.get("inserted"));
+    assertEquals(1, response.get("failed"));
+
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertEquals(3, results.size());
+    assertEquals("Todo must have a non-empty body name", results.get(1).get("error"));
+    for (int i : new int[] {0, 2}) {
+      String id = (String) results.get(i).get("id");
+      assertEquals(1, db.getCollection("todos").countDocuments(eq("_id", new ObjectId(id))));
+    }
+    assertEquals(2, db.getCollection("todos").countDocuments(eq("owner", "Bulk")));
+  }
+
+  @Test
+  public void addNewTodosRequiresAnArray() throws IOException {
+    when(ctx.bodyInputStream())
+      .thenReturn(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodos(ctx);
+    });
   }
 
   @Test
@@ -330,6 +665,56 @@ public class TodoControllerSpec {
   }
 
 
+  @Test
+  public void canGetAllTodosAsCbor() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/cbor, application/json;q=0.5");
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).contentType("application/cbor");
+    ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    List<Todo> todos = cbor.readValue(
+      outputStream.toByteArray(), cbor.getTypeFactory().constructCollectionType(List.class, Todo.class));
+    assertEquals(db.getCollection("todos").countDocuments(), todos.size());
+  }
+
+  @Test
+  public void addTodoAsSmile() throws IOException {
+    byte[] testNewTodo = new ObjectMapper(new SmileFactory()).writeValueAsBytes(Map.of(
+      "owner", "Smiley",
+      "category", "testers",
+      "body", "sent as Smile",
+      "status", "complete"));
+    when(ctx.contentType()).thenReturn("application/x-jackson-smile");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(testNewTodo));
+
+    todoController.addNewTodo(ctx);
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+
+    Document addedTodo = db.getCollection("todos")
+      .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Smiley", addedTodo.get("owner"));
+    assertEquals("sent as Smile", addedTodo.get(TodoController.BODY_KEY));
+  }
+
+  @Test
+  public void addTodoAsSmileIsValidated() throws IOException {
+    byte[] testNewTodo = new ObjectMapper(new SmileFactory()).writeValueAsBytes(Map.of(
+      "owner", "Smiley",
+      "category", "testers",
+      "body", "",
+      "status", "complete"));
+    when(ctx.contentType()).thenReturn("application/x-jackson-smile");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(testNewTodo));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodo(ctx);
+    });
+    assertEquals(0, db.getCollection("todos").countDocuments(eq("owner", "Smiley")));
+  }
+
   @Test
   public void addNullStatusTodo() throws IOException {
     String testNewTodo = "{"
@@ -376,6 +761,39 @@ public class TodoControllerSpec {
   }
 
 
+  @Test
+  public void addTodoWithUnknownFieldIsRejected() throws IOException {
+    String testNewTodo = "{"
+       + "\"owner\": \"Test Todo\","
+       + "\"category\": \"testers\","
+       + "\"body\": \"this is for testing\","
+       + "\"status\": \"incomplete\","
+       + "\"priority\": \"high\""
+       + "}";
+    when(ctx.bodyValidator(Todo.class))
+      .then(value -> new BodyValidator<Todo>(testNewTodo, Todo.class, javalinJackson));
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.addNewTodo(ctx);
+    });
+  }
+
+  @Test
+  public void getDeletedTodoIsNotServedFromCache() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    // The first lookup caches the todo, ...
+    todoController.getTodo(ctx);
+    verify(ctx).json(todoCaptor.capture());
+
+    // ... and deleting it has to drop it from the cache again.
+    todoController.deleteTodo(ctx);
+
+    assertThrows(NotFoundResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+  }
+
   @Test
   public void deleteFoundTodo() throws IOException {
     String testID = samsId.toHexString();
@@ -392,6 +810,15 @@ public class TodoControllerSpec {
     assertEquals(0, db.getCollection("todos").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+  @Test
+  public void tryToDeleteTodoWithBadId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.deleteTodo(ctx);
+    });
+  }
+
   @Test
   public void tryToDeleteNotFoundTodo() throws IOException {
     String testID = samsId.toHexString();
@@ -411,4 +838,83 @@ public class TodoControllerSpec {
     assertEquals(0, db.getCollection("todos").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+
+  @Test
+  public void deleteTodosNeedsAFilter() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.deleteTodos(ctx);
+    });
+    assertEquals(4, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  public void deleteTodosByCategory() throws IOException {
+    // Categories match ignoring case, so this is just Sam's todo.
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.CATEGORY_KEY, List.of("games")));
+    when(ctx.queryParam(TodoController.CATEGORY_KEY)).thenReturn("games");
+
+    todoController.deleteTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).json(bulkResultCaptor.capture());
+    assertEquals(1L, bulkResultCaptor.getValue().get("deleted"));
+    assertEquals(0, db.getCollection("todos").countDocuments(eq("_id", samsId)));
+    assertEquals(3, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  public void summarizesAllTodos() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    todoController.getTodoSummary(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).json(bulkResultCaptor.capture());
+    Map<String, Object> summary = bulkResultCaptor.getValue();
+    assertEquals(4, summary.get(TodoController.TOTAL_KEY));
+    assertEquals(Map.of("Chris", 1, "Joe", 1, "Poe", 1, "Sam", 1), summary.get(TodoController.OWNER_KEY));
+    assertEquals(4, ((Map<?, ?>) summary.get(TodoController.CATEGORY_KEY)).size());
+    // Largest counts first, ties in order of value
+    assertEquals(List.of("complete", "incomplete"),
+      new ArrayList<>(((Map<?, ?>) summary.get(TodoController.STATUS_KEY)).keySet()));
+    assertEquals(Map.of("complete", 2, "incomplete", 2), summary.get(TodoController.STATUS_KEY));
+  }
+
+  @Test
+  public void summaryUsesTheFilters() throws IOException {
+    // Categories match ignoring case, so this is just Sam's todo.
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.CATEGORY_KEY, List.of("games")));
+    when(ctx.queryParam(TodoController.CATEGORY_KEY)).thenReturn("games");
+
+    todoController.getTodoSummary(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    Map<String, Object> summary = bulkResultCaptor.getValue();
+    assertEquals(1, summary.get(TodoController.TOTAL_KEY));
+    assertEquals(Map.of("Sam", 1), summary.get(TodoController.OWNER_KEY));
+  }
+
+  @Test
+  public void summaryIsCachedUntilTheTodosChange() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    todoController.getTodoSummary(ctx);
+    // A change behind the server's back isn't seen until the cache expires ...
+    db.getCollection("todos").insertOne(new Document("owner", "Sneaky").append("category", "x").append("body", "y"));
+    todoController.getTodoSummary(ctx);
+    // ... but one made through the server is seen straight away.
+    todoController.deleteTodo(ctx);
+    todoController.getTodoSummary(ctx);
+
+    verify(ctx, times(3)).json(bulkResultCaptor.capture());
+    List<Map<String, Object>> summaries = bulkResultCaptor.getAllValues();
+    assertEquals(summaries.get(0), summaries.get(1));
+    Map<?, ?> owners = (Map<?, ?>) summaries.get(2).get(TodoController.OWNER_KEY);
+    assertTrue(owners.containsKey("Sneaky"));
+    assertFalse(owners.containsKey("Sam"));
+    assertEquals(1L, todoController.summaryCacheStats().get("hits"));
+  }
 }
@@ -0,0 +1,312 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validator;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.KeysetCursor;
+import umm3601.SparseFields;
+
+/**
+ * Tests the asynchronous user handlers. As in `AsyncTodoControllerSpec`,
+ * the future each handler gives Javalin is captured and waited for.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AsyncUserControllerSpec {
+
+  private UserController userController;
+  private AsyncUserController asyncUserController;
+  private ObjectId samsId;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+  private static com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+
+  private static JavalinJackson javalinJackson = new JavalinJackson();
+
+  @Mock
+  private Context ctx;
+
+  private ByteArrayServletOutputStream outputStream;
+
+  @Captor
+  private ArgumentCaptor<Supplier<? extends CompletableFuture<?>>> futureCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, String>> mapCaptor;
+
+  @Captor
+  private ArgumentCaptor<String> headerValueCaptor;
+
+  @BeforeAll
+  public static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClientSettings settings = MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build();
+
+    mongoClient = MongoClients.create(settings);
+    reactiveClient = com.mongodb.reactivestreams.client.MongoClients.create(settings);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  public static void teardown() {
+    db.drop();
+    mongoClient.close();
+    reactiveClient.close();
+  }
+
+  @BeforeEach
+  public void setupEach() throws IOException {
+    MockitoAnnotations.openMocks(this);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    List<Document> testUsers = new ArrayList<>();
+    testUsers.add(new Document()
+        .append("name", "Chris").append("age", 25).append("company", "UMM")
+        .append("email", "chris@this.that").append("role", "admin"));
+    testUsers.add(new Document()
+        .append("name", "Pat").append("age", 37).append("company", "IBM")
+        .append("email", "pat@something.com").append("role", "editor"));
+    testUsers.add(new Document()
+        .append("name", "Jamie").append("age", 37).append("company", "OHMNET")
+        .append("email", "jamie@frogs.com").append("role", "viewer"));
+    samsId = new ObjectId();
+    testUsers.add(new Document()
+        .append("_id", samsId).append("name", "Sam").append("age", 45).append("company", "OHMNET")
+        .append("email", "sam@frogs.com").append("role", "viewer"));
+    userDocuments.insertMany(testUsers);
+
+    userController = new UserController(db);
+    asyncUserController = new AsyncUserController(
+      reactiveClient.getDatabase("test"), userController, ForkJoinPool.commonPool());
+  }
+
+  // Wait for the future the handler gave Javalin, as Javalin would.
+  private void awaitFuture() {
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+  }
+
+  // Run the handler again for the next page, into a fresh output stream.
+  private void nextPage(Map<String, List<String>> queryParams) {
+    String cursor = headerValueCaptor.getValue();
+    queryParams.put(UserController.AFTER_KEY, List.of(cursor));
+    when(ctx.queryParam(UserController.AFTER_KEY)).thenReturn(cursor);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    asyncUserController.getUsers(ctx);
+    verify(ctx, times(2)).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+  }
+
+  @Test
+  public void canGetAllUsers() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    asyncUserController.getUsers(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    List<User> users = outputStream.readList(User.class);
+    assertEquals(4, users.size());
+    // Sorted by name, by default
+    assertEquals("Chris", users.get(0).name);
+    assertEquals(samsId.toHexString(), users.get(3)._id);
+  }
+
+  @Test
+  public void canPageThroughUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, List.of("2"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validator<Integer>(UserController.LIMIT_KEY, 2, null));
+
+    asyncUserController.getUsers(ctx);
+    awaitFuture();
+
+    List<User> firstPage = outputStream.readList(User.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(2, firstPage.size());
+    assertEquals("Chris", firstPage.get(0).name);
+    assertEquals("Jamie", firstPage.get(1).name);
+
+    nextPage(queryParams);
+
+    // Pat and Sam are all that's left, so there's no cursor this time.
+    List<User> secondPage = outputStream.readList(User.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), ArgumentMatchers.anyString());
+    assertEquals(2, secondPage.size());
+    assertEquals("Pat", secondPage.get(0).name);
+    assertEquals("Sam", secondPage.get(1).name);
+  }
+
+  @Test
+  public void canPageThroughOnlySomeFieldsOfUsers() throws IOException {
+    // The users are sorted (and paged) by name, which isn't one of the
+    // requested fields. The cursor needs it, but it mustn't be written out.
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(SparseFields.FIELDS_PARAMETER, List.of("company"));
+    queryParams.put(UserController.LIMIT_KEY, List.of("2"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("company");
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validator<Integer>(UserController.LIMIT_KEY, 2, null));
+
+    asyncUserController.getUsers(ctx);
+    awaitFuture();
+
+    String firstJson = outputStream.toString();
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertTrue(firstJson.contains("\"company\":\"UMM\""));
+    assertTrue(firstJson.contains("\"company\":\"OHMNET\""));
+    assertFalse(firstJson.contains("\"name\""));
+    assertFalse(firstJson.contains("\"email\""));
+
+    nextPage(queryParams);
+
+    // Pat and Sam, still without their names
+    String secondJson = outputStream.toString();
+    assertTrue(secondJson.contains("\"company\":\"IBM\""));
+    assertTrue(secondJson.contains(samsId.toHexString()));
+    assertFalse(secondJson.contains("\"name\""));
+    assertEquals(2, outputStream.readList(User.class).size());
+  }
+
+  @Test
+  public void getUserWithExistentId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    asyncUserController.getUser(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    assertTrue(outputStream.toString().contains("\"name\":\"Sam\""));
+  }
+
+  @Test
+  public void getUserWithBadId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      asyncUserController.getUser(ctx);
+    });
+  }
+
+  @Test
+  public void getUserWithNonexistentId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    asyncUserController.getUser(ctx);
+
+    CompletionException thrown = assertThrows(CompletionException.class, this::awaitFuture);
+    assertTrue(thrown.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  public void addUserGeneratesAnAvatar() throws IOException {
+    String testNewUser = "{"
+        + "\"name\": \"Test User\","
+        + "\"age\": 25,"
+        + "\"company\": \"testers\","
+        + "\"email\": \"test@example.com\","
+        + "\"role\": \"viewer\""
+        + "}";
+    when(ctx.bodyValidator(User.class))
+      .then(value -> new BodyValidator<User>(testNewUser, User.class, javalinJackson));
+
+    asyncUserController.addNewUser(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.CREATED);
+    verify(ctx).json(mapCaptor.capture());
+    Document addedUser = db.getCollection("users")
+      .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Test User", addedUser.get("name"));
+    assertEquals(userController.generateAvatar("test@example.com"), addedUser.get("avatar"));
+  }
+
+  @Test
+  public void deleteFoundUser() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    asyncUserController.deleteUser(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(0, db.getCollection("users").countDocuments(eq("_id", samsId)));
+  }
+
+  @Test
+  public void deleteUserWithBadId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      asyncUserController.deleteUser(ctx);
+    });
+  }
+
+  @Test
+  public void deletedUserIsntServedFromTheCache() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    // The synchronous handler caches Sam
+    userController.getUser(ctx);
+
+    asyncUserController.deleteUser(ctx);
+    awaitFuture();
+
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+}
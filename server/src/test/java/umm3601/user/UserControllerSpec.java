@@ -1,15 +1,21 @@
 package umm3601.user;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.mockito.ArgumentMatchers.argThat;
 import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,6 +25,8 @@ import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
@@ -34,20 +42,26 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import org.mockito.ArgumentMatcher;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import io.javalin.validation.BodyValidator;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
+import umm3601.BulkDelete;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.KeysetCursor;
+import umm3601.SparseFields;
 
 /**
  * Tests the logic of the UserController
@@ -85,8 +99,9 @@ public class UserControllerSpec {
   @Mock
   private Context ctx;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
+  // Collects whatever the controller streams out through `ctx.outputStream()`
+  // (which is how the list endpoints write their results).
+  private ByteArrayServletOutputStream outputStream;
 
   @Captor
   private ArgumentCaptor<User> userCaptor;
@@ -94,6 +109,12 @@ public class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> bulkResultCaptor;
+
+  @Captor
+  private ArgumentCaptor<String> headerValueCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -126,6 +147,8 @@ public class UserControllerSpec {
   public void setupEach() throws IOException {
     // Reset our mock context and argument captor (declared with Mockito annotations @Mock and @Captor)
     MockitoAnnotations.openMocks(this);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
 
     // Setup database
     MongoCollection<Document> userDocuments = db.getCollection("users");
@@ -182,22 +205,14 @@ public class UserControllerSpec {
     // (which will, indeed, ask the context for its queryParamMap)
     userController.getUsers(ctx);
 
-    // We are going to capture an argument to a function, and the type of that argument will be
-    // of type ArrayList<User> (we said so earlier using a Mockito annotation like this):
-    // @Captor
-    // private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
-    // We only want to declare that captor once and let the annotation
-    // help us accomplish reassignment of the value for the captor
-    // We reset the values of our annotated declarations using the command
-    // `MockitoAnnotations.openMocks(this);` in our @BeforeEach
-
-    // Specifically, we want to pay attention to the ArrayList<User> that is passed as input
-    // when ctx.json is called --- what is the argument that was passed? We capture it and can refer to it later
-    verify(ctx).json(userArrayListCaptor.capture());
+    // The controller streams the list of users out as JSON rather than
+    // handing it to `ctx.json()`, so we read back what was written to the
+    // (fake) output stream and turn it back into a List<User>.
     verify(ctx).status(HttpStatus.OK);
+    List<User> users = outputStream.readList(User.class);
 
-    // Check that the database collection holds the same number of documents as the size of the captured List<User>
-    assertEquals(db.getCollection("users").countDocuments(), userArrayListCaptor.getValue().size());
+    // Check that the database collection holds the same number of documents as the size of the streamed List<User>
+    assertEquals(db.getCollection("users").countDocuments(), users.size());
   }
 
   @Test
@@ -211,9 +226,9 @@ public class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = outputStream.readList(User.class);
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users.size());
   }
 
   /**
@@ -256,16 +271,11 @@ public class UserControllerSpec {
     // Verify that `getUsers` called `ctx.status(200)` at some point.
     verify(ctx).status(HttpStatus.OK);
 
-    // Verify that `ctx.json()` is called with a `List` of `User`s.
+    // Verify that a `List` of `User`s was written out.
     // Each of those `User`s should have age 37.
-    verify(ctx).json(argThat(new ArgumentMatcher<List<User>>() {
-      public boolean matches(List<User> users) {
-        for (User user : users) {
-          assertEquals(37, user.age);
-        }
-        return true;
-      }
-    }));
+    for (User user : outputStream.readList(User.class)) {
+      assertEquals(37, user.age);
+    }
   }
 
   /**
@@ -319,11 +329,43 @@ public class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = outputStream.readList(User.class);
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
+  @Test
+  public void canGetUsersWithCompanyIgnoringCase() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"ohmnet"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("ohmnet");
+
+    userController.getUsers(ctx);
+
+    List<User> users = outputStream.readList(User.class);
+    assertEquals(2, users.size());
+    for (User user : users) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
+  @Test
+  public void canGetUsersWithCompanyPrefix() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_PREFIX_PARAMETER, Arrays.asList(new String[] {"Ohm"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_PREFIX_PARAMETER)).thenReturn("Ohm");
+
+    userController.getUsers(ctx);
+
+    List<User> users = outputStream.readList(User.class);
+    assertEquals(2, users.size());
+    for (User user : users) {
       assertEquals("OHMNET", user.company);
     }
   }
@@ -338,9 +380,9 @@ public class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = outputStream.readList(User.class);
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users.size());
   }
 
   @Test
@@ -355,15 +397,76 @@ public class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = outputStream.readList(User.class);
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(1, userArrayListCaptor.getValue().size());
-    for (User user : userArrayListCaptor.getValue()) {
+    assertEquals(1, users.size());
+    for (User user : users) {
       assertEquals("OHMNET", user.company);
       assertEquals(37, user.age);
     }
   }
 
+  @Test
+  public void canPageThroughUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "2", UserController.LIMIT_KEY));
+
+    userController.getUsers(ctx);
+
+    // The first page should hold the first two users by name, and
+    // come with a cursor for the next page.
+    List<User> firstPage = outputStream.readList(User.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(2, firstPage.size());
+    assertEquals("Chris", firstPage.get(0).name);
+    assertEquals("Jamie", firstPage.get(1).name);
+
+    // Now ask for the page after that cursor.
+    String cursor = headerValueCaptor.getValue();
+    queryParams.put(UserController.AFTER_KEY, Arrays.asList(new String[] {cursor}));
+    when(ctx.queryParam(UserController.AFTER_KEY)).thenReturn(cursor);
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    userController.getUsers(ctx);
+
+    // The second page should hold the remaining two users, and since
+    // there's nothing left there shouldn't be another cursor.
+    List<User> secondPage = outputStream.readList(User.class);
+    verify(ctx).header(ArgumentMatchers.eq(KeysetCursor.NEXT_CURSOR_HEADER), headerValueCaptor.capture());
+    assertEquals(2, secondPage.size());
+    assertEquals("Pat", secondPage.get(0).name);
+    assertEquals("Sam", secondPage.get(1).name);
+  }
+
+  @Test
+  public void respondsAppropriatelyToTooLargePage() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"100000"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "100000", UserController.LIMIT_KEY));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  public void respondsAppropriatelyToBadCursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.AFTER_KEY, Arrays.asList(new String[] {"not a cursor"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.AFTER_KEY)).thenReturn("not a cursor");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
   @Test
   public void getUserWithExistentId() throws IOException {
     String id = samsId.toHexString();
@@ -377,6 +480,153 @@ public class UserControllerSpec {
     assertEquals(samsId.toHexString(), userCaptor.getValue()._id);
   }
 
+  @Test
+  public void getUserAsMessagePack() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/x-msgpack");
+
+    userController.getUser(ctx);
+
+    verify(ctx).contentType("application/x-msgpack");
+    verify(ctx).status(HttpStatus.OK);
+    User sam = new ObjectMapper(new MessagePackFactory()).readValue(outputStream.toByteArray(), User.class);
+    assertEquals("Sam", sam.name);
+    assertEquals(samsId.toHexString(), sam._id);
+  }
+
+  @Test
+  public void canGetOnlySomeFieldsOfUsers() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(SparseFields.FIELDS_PARAMETER, List.of("name, company")));
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("name, company");
+
+    userController.getUsers(ctx);
+
+    // Only the requested fields (and the ID) should have been written out.
+    String json = outputStream.toString();
+    assertTrue(json.contains("\"name\""));
+    assertTrue(json.contains("\"company\""));
+    assertTrue(json.contains("\"_id\""));
+    assertFalse(json.contains("\"email\""));
+    assertFalse(json.contains("\"avatar\""));
+    assertFalse(json.contains("\"age\""));
+    assertEquals(db.getCollection("users").countDocuments(), outputStream.readList(User.class).size());
+  }
+
+  @Test
+  public void canGetOnlySomeFieldsOfUser() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("name");
+
+    userController.getUser(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    String json = outputStream.toString();
+    assertTrue(json.contains("\"Sam\""));
+    assertTrue(json.contains(samsId.toHexString()));
+    assertFalse(json.contains("\"company\""));
+    assertFalse(json.contains("\"role\""));
+  }
+
+  @Test
+  public void getUserVariesOnAccept() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    // Even a plain JSON response depends on the `Accept` header ...
+    userController.getUser(ctx);
+
+    verify(ctx).json(ArgumentMatchers.any());
+    verify(ctx).header(Header.VARY, Header.ACCEPT);
+
+    // ... and so does the 304 that answers a conditional request for it.
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    userController.getUser(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, times(2)).header(Header.VARY, Header.ACCEPT);
+  }
+
+  @Test
+  public void cannotGetFieldsThatUsersDontHave() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(SparseFields.FIELDS_PARAMETER, List.of("$where")));
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("$where");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+
+    // Nor names that only look like paths into a field
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.queryParam(SparseFields.FIELDS_PARAMETER)).thenReturn("_id.$");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+
+  @Test
+  public void getUserIsNotModifiedWhenETagMatches() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    userController.getUser(ctx);
+
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    // Asking again with that ETag should get a 304, and no body.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    userController.getUser(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx).json(userCaptor.capture());
+  }
+
+  @Test
+  public void deletingUserChangesETag() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    userController.getUsers(ctx);
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+
+    // The old ETag is stale now, so we should get the full (new) list back.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    outputStream = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(outputStream);
+
+    userController.getUsers(ctx);
+
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+    assertEquals(3, outputStream.readList(User.class).size());
+  }
+
+  @Test
+  public void conditionalGetUserStillChecksTheId() throws IOException {
+    // `*` only matches an existing user, and we can't know that up front.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+    when(ctx.pathParam("id")).thenReturn("bad");
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+
+    // Nor does the current ETag of the list match a single user.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(userController.version().etag(ctx));
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+
   @Test
   public void getUserWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -386,6 +636,8 @@ public class UserControllerSpec {
     });
 
     assertEquals("The requested user id wasn't a legal Mongo Object ID.", exception.getMessage());
+    // An error response shouldn't carry an ETag a client might cache.
+    verify(ctx, never()).header(ArgumentMatchers.eq(Header.ETAG), ArgumentMatchers.anyString());
   }
 
   @Test
@@ -398,6 +650,69 @@ public class UserControllerSpec {
     });
 
     assertEquals("The requested user was not found", exception.getMessage());
+    // An error response shouldn't carry an ETag a client might cache.
+    verify(ctx, never()).header(ArgumentMatchers.eq(Header.ETAG), ArgumentMatchers.anyString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void addNewUsersInsertsTheLegalOnes() throws IOException {
+    String testNewUsers = "["
+      + "{\"name\": \"Bulk One\", \"age\": 25, \"company\": \"bulk\","
+      + " \"email\": \"one@example.com\", \"role\": \"viewer\"},"
+      + " {\"name\": \"Bulk Two\", \"age\": 25, \"company\": \"bulk\","
+      + " \"email\": \"nope\", \"role\": \"viewer\"},"
+      + " {\"name\": \"Bulk Three\", \"age\": 25, \"company\": \"bulk\","
+      + " \"email\": \"3@example.com\", \"role\": \"admin\"}]";
+    when(ctx.bodyInputStream())
+      .thenReturn(new ByteArrayInputStream(testNewUsers.getBytes(StandardCharsets.UTF_8)));
+
+    userController.addNewUsers(ctx);
+
+    // The middle one is rejected, so the status is 207 rather than 201.
+    verify(ctx).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+    Map<String, Object> response = bulkResultCaptor.getValue();
+    assertEquals(2, response.get("inserted"));
+    assertEquals(1, response.get("failed"));
+
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertEquals(3, results.size());
+    assertEquals("User must have a legal email", results.get(1).get("error"));
+    for (int i : new int[] {0, 2}) {
+      String id = (String) results.get(i).get("id");
+      assertEquals(1, db.getCollection("users").countDocuments(eq("_id", new ObjectId(id))));
+    }
+    assertEquals(2, db.getCollection("users").countDocuments(eq("company", "bulk")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void addNewUsersAsCbor() throws IOException {
+    byte[] testNewUsers = new ObjectMapper(new CBORFactory()).writeValueAsBytes(List.of(
+      Map.of("name", "Cbor One", "age", 25, "company", "cbor", "email", "one@example.com", "role", "viewer"),
+      Map.of("name", "Cbor Two", "age", 25, "company", "cbor", "email", "nope", "role", "viewer")));
+    when(ctx.contentType()).thenReturn("application/cbor");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(testNewUsers));
+
+    userController.addNewUsers(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    Map<String, Object> response = bulkResultCaptor.getValue();
+    assertEquals(1, response.get("inserted"));
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertEquals("User must have a legal email", results.get(1).get("error"));
+    assertEquals(1, db.getCollection("users").countDocuments(eq("company", "cbor")));
+  }
+
+  @Test
+  public void addNewUsersRequiresAnArray() throws IOException {
+    when(ctx.bodyInputStream())
+      .thenReturn(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.addNewUsers(ctx);
+    });
   }
 
   @Test
@@ -432,6 +747,42 @@ public class UserControllerSpec {
     assertNotNull(addedUser.get("avatar"));
   }
 
+  @Test
+  public void avatarsAreGravatarIdenticons() throws NoSuchAlgorithmException {
+    // The hash ignores case, and matches the one Sam was seeded with
+    assertEquals("08b7610b558a4cbbd20ae99072801f4d", userController.md5("Sam@Frogs.com"));
+    assertEquals("https://gravatar.com/avatar/08b7610b558a4cbbd20ae99072801f4d?d=identicon",
+      userController.generateAvatar("sam@frogs.com"));
+  }
+
+  @Test
+  public void avatarsAreRemembered() {
+    String first = userController.generateAvatar("repeat@example.com");
+    String second = userController.generateAvatar("repeat@example.com");
+
+    assertEquals(first, second);
+    assertEquals(1L, userController.avatarCacheStats().get("misses"));
+    assertEquals(1L, userController.avatarCacheStats().get("hits"));
+  }
+
+  @Test
+  public void avatarsAreRememberedWhateverTheCase() {
+    String first = userController.generateAvatar("Repeat@Example.com");
+    String second = userController.generateAvatar("repeat@example.com");
+
+    assertEquals(first, second);
+    assertEquals(1L, userController.avatarCacheStats().get("size"));
+    assertEquals(1L, userController.avatarCacheStats().get("hits"));
+  }
+
+  @Test
+  public void overlongEmailsArentRemembered() {
+    String email = "a".repeat(UserController.MAX_CACHED_EMAIL_LENGTH) + "@example.com";
+
+    assertTrue(userController.generateAvatar(email).startsWith("https://gravatar.com/avatar/"));
+    assertEquals(0L, userController.avatarCacheStats().get("size"));
+  }
+
   @Test
   public void addInvalidEmailUser() throws IOException {
     String testNewUser = "{"
@@ -587,6 +938,22 @@ public class UserControllerSpec {
     });
   }
 
+  @Test
+  public void getDeletedUserIsNotServedFromCache() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    // The first lookup caches the user, ...
+    userController.getUser(ctx);
+    verify(ctx).json(userCaptor.capture());
+
+    // ... and deleting it has to drop it from the cache again.
+    userController.deleteUser(ctx);
+
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+
   @Test
   public void deleteFoundUser() throws IOException {
     String testID = samsId.toHexString();
@@ -603,6 +970,15 @@ public class UserControllerSpec {
     assertEquals(0, db.getCollection("users").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+  @Test
+  public void tryToDeleteUserWithBadId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.deleteUser(ctx);
+    });
+  }
+
   @Test
   public void tryToDeleteNotFoundUser() throws IOException {
     String testID = samsId.toHexString();
@@ -622,4 +998,50 @@ public class UserControllerSpec {
     assertEquals(0, db.getCollection("users").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+
+  @Test
+  public void deleteUsersDryRunOnlyCounts() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(
+      UserController.COMPANY_KEY, List.of("ohmnet"),
+      BulkDelete.DRY_RUN_PARAMETER, List.of("true")));
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("ohmnet");
+    when(ctx.queryParamAsClass(BulkDelete.DRY_RUN_PARAMETER, Boolean.class))
+      .thenReturn(new Validator<Boolean>(BulkDelete.DRY_RUN_PARAMETER, true, null));
+
+    userController.deleteUsers(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    assertEquals(2L, bulkResultCaptor.getValue().get("matched"));
+    assertEquals(0L, bulkResultCaptor.getValue().get("deleted"));
+    assertEquals(2, db.getCollection("users").countDocuments(eq(UserController.COMPANY_KEY, "OHMNET")));
+  }
+
+  @Test
+  public void deleteUsersRefusesToGoOverTheCap() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(
+      UserController.COMPANY_KEY, List.of("OHMNET"),
+      BulkDelete.MAX_PARAMETER, List.of("1")));
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+    when(ctx.queryParamAsClass(BulkDelete.MAX_PARAMETER, Integer.class))
+      .thenReturn(new Validator<Integer>(BulkDelete.MAX_PARAMETER, 1, null));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.deleteUsers(ctx);
+    });
+    assertEquals(2, db.getCollection("users").countDocuments(eq(UserController.COMPANY_KEY, "OHMNET")));
+  }
+
+  @Test
+  public void deleteUsersByCompany() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.COMPANY_KEY, List.of("OHMNET")));
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    userController.deleteUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).json(bulkResultCaptor.capture());
+    assertEquals(2L, bulkResultCaptor.getValue().get("deleted"));
+    assertEquals(0, db.getCollection("users").countDocuments(eq(UserController.COMPANY_KEY, "OHMNET")));
+    assertEquals(2, db.getCollection("users").countDocuments());
+  }
 }